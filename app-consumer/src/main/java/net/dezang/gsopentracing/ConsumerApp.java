@@ -1,28 +1,53 @@
 package net.dezang.gsopentracing;
 
-import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.References;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
-import io.opentracing.contrib.kafka.TracingKafkaUtils;
 import io.opentracing.contrib.kafka.spring.TracingConsumerFactory;
+import io.opentracing.log.Fields;
 import io.opentracing.tag.Tags;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @SpringBootApplication
 public class ConsumerApp {
@@ -33,27 +58,13 @@ public class ConsumerApp {
     @Configuration
     @RequiredArgsConstructor
     static class Config {
-        @Value("${spring.application.name}")
-        private String applicationName;
         private final KafkaProperties kafkaProperties;
-
-        @Bean
-        Tracer tracer() {
-            io.jaegertracing.Configuration.SamplerConfiguration samplerConfig = io.jaegertracing.Configuration.SamplerConfiguration.fromEnv().withType(ConstSampler.TYPE).withParam(1);
-            io.jaegertracing.Configuration.SenderConfiguration senderConfig = io.jaegertracing.Configuration.SenderConfiguration.fromEnv()
-                    .withAgentHost("localhost")
-                    .withAgentPort(6831);
-            io.jaegertracing.Configuration.ReporterConfiguration reporterConfig = io.jaegertracing.Configuration.ReporterConfiguration.fromEnv().withLogSpans(true).withSender(senderConfig);
-            io.jaegertracing.Configuration config = new io.jaegertracing.Configuration(applicationName)
-                    .withSampler(samplerConfig)
-                    .withReporter(reporterConfig);
-            return config.getTracer();
-        }
+        private final Tracer tracer;
 
         @Bean
         ConsumerFactory<String, String> consumerFactory() {
             return new TracingConsumerFactory<>(new DefaultKafkaConsumerFactory<>(
-                    kafkaProperties.buildConsumerProperties()), tracer());
+                    kafkaProperties.buildConsumerProperties()), tracer);
         }
 
         @Bean
@@ -62,21 +73,77 @@ public class ConsumerApp {
             factory.setConsumerFactory(consumerFactory());
             return factory;
         }
+
+        @Bean
+        ConcurrentKafkaListenerContainerFactory<String, String> batchKafkaListenerContainerFactory() {
+            ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+            factory.setConsumerFactory(consumerFactory());
+            factory.setBatchListener(true);
+            return factory;
+        }
+
+        @Bean
+        @ConditionalOnExpression("${consumer.parallel.enabled:false} or ${consumer.write-behind.enabled:false}")
+        PartitionOffsetTracker partitionOffsetTracker() {
+            return new PartitionOffsetTracker();
+        }
+
+        @Bean
+        @ConditionalOnProperty(name = "consumer.parallel.enabled", havingValue = "true")
+        KeyOrderedExecutor keyOrderedExecutor(@Value("${consumer.parallel.threads:0}") int threads,
+                                              @Value("${consumer.parallel.max-in-flight:1000}") int maxInFlight,
+                                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+            return KeyOrderedExecutor.create(threads, maxInFlight, virtualThreads);
+        }
+
+        @Bean(destroyMethod = "close")
+        @ConditionalOnProperty(name = "consumer.write-behind.enabled", havingValue = "true")
+        WriteBehindQueue writeBehindQueue(Repository repository, KafkaListenerEndpointRegistry registry,
+                                          @Value("${consumer.write-behind.capacity:10000}") int capacity,
+                                          @Value("${consumer.write-behind.batch-size:500}") int batchSize,
+                                          @Value("${consumer.write-behind.flush-interval:200ms}") Duration flushInterval) {
+            repository.requireDatabase();
+            return new WriteBehindQueue(tracer, repository::saveAll, capacity, batchSize, flushInterval,
+                    () -> registry.getListenerContainer(WriteBehindStreamConsumer.LISTENER_ID).pause(),
+                    () -> registry.getListenerContainer(WriteBehindStreamConsumer.LISTENER_ID).resume());
+        }
+
+        /**
+         * For listeners that acknowledge records after the listener method returned, through
+         * {@link PartitionOffsetTracker}.
+         */
+        @Bean
+        @ConditionalOnExpression("${consumer.parallel.enabled:false} or ${consumer.write-behind.enabled:false}")
+        ConcurrentKafkaListenerContainerFactory<String, String> manualAckKafkaListenerContainerFactory(
+                PartitionOffsetTracker offsetTracker) {
+            ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+            factory.setConsumerFactory(consumerFactory());
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+            factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+                @Override
+                public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                    offsetTracker.revoke(partitions);
+                }
+            });
+            return factory;
+        }
     }
 
+    // listener methods are only registered for beans that get created, so these stay eager under lazy init
     @Log4j2
     @Component
+    @Lazy(false)
     @RequiredArgsConstructor
     static class SimpleConsumer {
         private final Tracer tracer;
         private static final boolean IS_WORK = false;
 
-        @KafkaListener(topics = "test.tracing")
+        @KafkaListener(topics = "test.tracing", concurrency = "${consumer.concurrency.test-tracing:1}")
         public void consume(ConsumerRecord<String, String> record) {
             log.info("received message={}", record.value());
             if (IS_WORK) {
                 Headers headers = record.headers();
-                SpanContext spanContext = TracingKafkaUtils.extractSpanContext(headers, tracer);
+                SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, headers);
                 Span span = tracer.buildSpan("consumed")
                         .asChildOf(spanContext)
                         .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
@@ -92,44 +159,270 @@ public class ConsumerApp {
             Span span = tracer.buildSpan("consumer-work").start();
             try (Scope ignored = tracer.scopeManager().activate(span)) {
                 try {
-                    System.out.println("working!");
+                    log.debug("working");
                     Thread.sleep(200);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    log.warn("interrupted while working", e);
                 }
             } finally {
                 span.finish();
             }
         }
+    }
+
+    @Log4j2
+    @Component
+    @Lazy(false)
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(prefix = "consumer", name = {"batch.enabled", "parallel.enabled", "write-behind.enabled"},
+            havingValue = "false", matchIfMissing = true)
+    static class StreamConsumer {
+        private final Tracer tracer;
+        private final Repository repository;
+        private final RecordLatencyTracker latencyTracker;
 
-        @KafkaListener(topics = "test.tracing.stream")
+        @KafkaListener(topics = "test.tracing.stream", concurrency = "${consumer.concurrency.test-tracing-stream:1}")
         public void consumeFromStream(ConsumerRecord<String, String> record) {
             log.info("received message={}", record.value());
+            latencyTracker.received(record.topic(), record.partition(), record.headers());
             Headers headers = record.headers();
-            SpanContext spanContext = TracingKafkaUtils.extractSpanContext(headers, tracer);
+            SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, headers);
             Span span = tracer.buildSpan("consumed")
                     .asChildOf(spanContext)
                     .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
                     .start();
             try (Scope ignored = tracer.scopeManager().activate(span)) {
-                saveToDb();
+                repository.saveToDb();
             } finally {
                 span.finish();
             }
+            latencyTracker.processed(record.topic(), record.partition(), record.headers());
+        }
+    }
+
+    /**
+     * Handles a whole poll at once: one {@code poll-batch} span per {@code List<ConsumerRecord>}, a cheap
+     * {@code consumed} span per record that continues the record's trace and follows from the batch span,
+     * and one {@code saveToDb} call for the whole batch.
+     */
+    @Log4j2
+    @Component
+    @Lazy(false)
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "consumer.batch.enabled", havingValue = "true")
+    static class BatchStreamConsumer {
+        private final Tracer tracer;
+        private final Repository repository;
+        private final RecordLatencyTracker latencyTracker;
+
+        @KafkaListener(topics = "test.tracing.stream", containerFactory = "batchKafkaListenerContainerFactory",
+                concurrency = "${consumer.concurrency.test-tracing-stream:1}")
+        public void consumeFromStream(List<ConsumerRecord<String, String>> records) {
+            log.info("received batch size={}", records.size());
+            Span batchSpan = tracer.buildSpan("poll-batch")
+                    .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CONSUMER)
+                    .withTag("batch.size", records.size())
+                    .start();
+            try (Scope ignored = tracer.scopeManager().activate(batchSpan)) {
+                for (ConsumerRecord<String, String> record : records) {
+                    latencyTracker.received(record.topic(), record.partition(), record.headers());
+                    SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, record.headers());
+                    tracer.buildSpan("consumed")
+                            .asChildOf(spanContext)
+                            .addReference(References.FOLLOWS_FROM, batchSpan.context())
+                            .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                            .start()
+                            .finish();
+                }
+                repository.saveToDb(records.size());
+            } finally {
+                batchSpan.finish();
+            }
+            for (ConsumerRecord<String, String> record : records) {
+                latencyTracker.processed(record.topic(), record.partition(), record.headers());
+            }
+        }
+    }
+
+    /**
+     * Fans the records of each assigned partition out to {@link KeyOrderedExecutor} lanes, so one partition is
+     * worked on by many threads while records with the same key keep their order. Offsets are acknowledged by
+     * {@link PartitionOffsetTracker} only once every earlier record of the partition has finished.
+     * <p>
+     * A record whose work fails is published to {@code <topic>.DLT} and only completes once the broker
+     * acknowledged that. If the dead letter cannot be published either, the record never completes, so no
+     * offset of its partition past it is committed and it is re-delivered after a restart or rebalance.
+     * <p>
+     * The {@code consumed} span is started on the listener thread and only activated on the worker thread;
+     * scopes are never handed between threads.
+     */
+    @Log4j2
+    @Component
+    @Lazy(false)
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "consumer.parallel.enabled", havingValue = "true")
+    static class ParallelStreamConsumer {
+        static final String DEAD_LETTER_SUFFIX = ".DLT";
+        static final String EXCEPTION_HEADER = "dlt-exception";
+        private static final Duration DEAD_LETTER_TIMEOUT = Duration.ofSeconds(30);
+
+        private final Tracer tracer;
+        private final Repository repository;
+        private final KeyOrderedExecutor executor;
+        private final PartitionOffsetTracker offsetTracker;
+        private final RecordLatencyTracker latencyTracker;
+        private final KafkaTemplate<String, String> kafkaTemplate;
+
+        @KafkaListener(topics = "test.tracing.stream", containerFactory = "manualAckKafkaListenerContainerFactory",
+                concurrency = "${consumer.concurrency.test-tracing-stream:1}")
+        public void consumeFromStream(ConsumerRecord<String, String> record, Acknowledgment acknowledgment)
+                throws InterruptedException {
+            log.info("received message={}", record.value());
+            latencyTracker.received(record.topic(), record.partition(), record.headers());
+            PartitionOffsetTracker.Entry entry = offsetTracker.track(record, acknowledgment);
+            SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, record.headers());
+            Span span = tracer.buildSpan("consumed")
+                    .asChildOf(spanContext)
+                    .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                    .start();
+            executor.execute(record.key(), () -> {
+                try (Scope ignored = tracer.scopeManager().activate(span)) {
+                    repository.saveToDb();
+                    latencyTracker.processed(record.topic(), record.partition(), record.headers());
+                    offsetTracker.complete(entry);
+                } catch (RuntimeException e) {
+                    Tags.ERROR.set(span, true);
+                    span.log(Map.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, e));
+                    deadLetter(record, entry, e);
+                } finally {
+                    span.finish();
+                }
+            });
+        }
+
+        private void deadLetter(ConsumerRecord<String, String> record, PartitionOffsetTracker.Entry entry,
+                                RuntimeException cause) {
+            String topic = record.topic() + DEAD_LETTER_SUFFIX;
+            ProducerRecord<String, String> deadLetter = new ProducerRecord<>(topic, null, record.key(),
+                    record.value(), record.headers());
+            deadLetter.headers().add(EXCEPTION_HEADER, String.valueOf(cause).getBytes(StandardCharsets.UTF_8));
+            try {
+                kafkaTemplate.send(deadLetter).get(DEAD_LETTER_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("interrupted publishing {}-{}@{} to {}, its offset stays uncommitted",
+                        record.topic(), record.partition(), record.offset(), topic, cause);
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("could not publish {}-{}@{} to {}, its offset stays uncommitted: {}",
+                        record.topic(), record.partition(), record.offset(), topic, e.toString(), cause);
+                return;
+            }
+            log.warn("published {}-{}@{} to {}", record.topic(), record.partition(), record.offset(), topic, cause);
+            offsetTracker.complete(entry);
         }
+    }
+
+    /**
+     * Hands every record to {@link WriteBehindQueue} instead of saving it on the listener thread. The
+     * {@code consumed} span stays open until the record's batch is committed to the database, and only then is
+     * the offset acknowledged, so a crash before the flush re-delivers the record (at least once).
+     */
+    @Log4j2
+    @Component
+    @Lazy(false)
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "consumer.write-behind.enabled", havingValue = "true")
+    static class WriteBehindStreamConsumer {
+        static final String LISTENER_ID = "writeBehindStreamConsumer";
 
-        private void saveToDb() {
+        private final Tracer tracer;
+        private final WriteBehindQueue writeBehindQueue;
+        private final PartitionOffsetTracker offsetTracker;
+        private final RecordLatencyTracker latencyTracker;
+
+        // paused and resumed by WriteBehindQueue
+        @KafkaListener(id = LISTENER_ID, idIsGroup = false, topics = "test.tracing.stream",
+                containerFactory = "manualAckKafkaListenerContainerFactory",
+                concurrency = "${consumer.concurrency.test-tracing-stream:1}")
+        public void consumeFromStream(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) {
+            log.debug("received message={}", record.value());
+            latencyTracker.received(record.topic(), record.partition(), record.headers());
+            PartitionOffsetTracker.Entry entry = offsetTracker.track(record, acknowledgment);
+            SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, record.headers());
+            Span span = tracer.buildSpan("consumed")
+                    .asChildOf(spanContext)
+                    .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                    .start();
+            writeBehindQueue.add(record, span, () -> {
+                offsetTracker.complete(entry);
+                latencyTracker.processed(record.topic(), record.partition(), record.headers());
+            });
+        }
+    }
+
+    @Log4j2
+    @Component
+    @RequiredArgsConstructor
+    static class Repository {
+        private static final String MERGE_RECORD = "MERGE INTO consumed_record"
+                + " (topic, partition_id, record_offset, record_key, record_value, trace_id)"
+                + " KEY (topic, partition_id, record_offset) VALUES (?, ?, ?, ?, ?, ?)";
+
+        private final Tracer tracer;
+        // only write-behind stores records, the other modes run without a DataSource (see application.yaml)
+        private final ObjectProvider<JdbcTemplate> jdbcTemplate;
+        private final ObjectProvider<TransactionTemplate> transactionTemplate;
+
+        /**
+         * @throws IllegalStateException when there is no DataSource to {@link #saveAll} into
+         */
+        void requireDatabase() {
+            if (jdbcTemplate.getIfAvailable() == null || transactionTemplate.getIfAvailable() == null) {
+                throw new IllegalStateException(
+                        "consumer.write-behind.enabled needs a DataSource, activate the write-behind profile");
+            }
+        }
+
+        void saveToDb() {
+            saveToDb(1);
+        }
+
+        void saveToDb(int records) {
             Span span = tracer.buildSpan("saveToDb").start();
             try (Scope ignored = tracer.scopeManager().activate(span)) {
+                if (records > 1) {
+                    span.setTag("batch.size", records);
+                }
                 try {
-                    System.out.println("saved!");
+                    log.debug("saved");
                     Thread.sleep(250);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    log.warn("interrupted while saving", e);
                 }
             } finally {
                 span.finish();
             }
         }
+
+        /**
+         * One JDBC batch in one transaction. Rows are keyed by topic, partition and offset, so a re-delivered
+         * record overwrites its earlier row instead of adding a second one.
+         */
+        void saveAll(List<ConsumerRecord<String, String>> records) {
+            transactionTemplate.getObject().executeWithoutResult(status -> jdbcTemplate.getObject().batchUpdate(
+                    MERGE_RECORD, records,
+                    records.size(), (statement, record) -> {
+                        SpanContext spanContext = tracer.extract(KafkaHeadersCodec.FORMAT, record.headers());
+                        statement.setString(1, record.topic());
+                        statement.setInt(2, record.partition());
+                        statement.setLong(3, record.offset());
+                        statement.setString(4, record.key());
+                        statement.setString(5, record.value());
+                        statement.setString(6, spanContext != null ? spanContext.toTraceId() : null);
+                    }));
+        }
     }
 }
@@ -0,0 +1,79 @@
+package net.dezang.gsopentracing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.dezang.gsopentracing.tracing.concurrent.VirtualThreads;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed set of single-threaded lanes picked by key hash, so tasks for one key run in
+ * submission order while different keys run in parallel. {@link #execute} blocks once {@code maxInFlight}
+ * tasks are queued or running, which pushes back on the listener thread instead of buffering a whole poll.
+ * <p>
+ * With virtual threads a lane costs little more than its queue, but every lane still holds a thread and
+ * whatever it caches for as long as the executor lives, so the lanes stay a bounded set of stripes:
+ * {@value #VIRTUAL_LANES} by default, enough for keys to block on I/O independently.
+ */
+class KeyOrderedExecutor implements AutoCloseable {
+    static final int VIRTUAL_LANES = 64;
+
+    private final ExecutorService[] lanes;
+    private final Semaphore inFlight;
+
+    /**
+     * @param threads lanes, or 0 for one per processor, or {@value #VIRTUAL_LANES} with virtual threads
+     * @param virtualThreads {@code spring.threads.virtual.enabled}, ignored on a runtime without them
+     */
+    static KeyOrderedExecutor create(int threads, int maxInFlight, boolean virtualThreads) {
+        if (VirtualThreads.enabled(virtualThreads)) {
+            return new KeyOrderedExecutor(VirtualThreads.factory("consumer-worker-"),
+                    threads > 0 ? threads : Math.min(VIRTUAL_LANES, maxInFlight), maxInFlight);
+        }
+        int lanes = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new KeyOrderedExecutor(new ThreadFactoryBuilder().setNameFormat("consumer-worker-%d").build(),
+                lanes, maxInFlight);
+    }
+
+    KeyOrderedExecutor(ThreadFactory threadFactory, int lanes, int maxInFlight) {
+        this.lanes = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    int lanes() {
+        return lanes.length;
+    }
+
+    void execute(Object key, Runnable task) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            lanes[Math.floorMod(Objects.hashCode(key), lanes.length)].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package net.dezang.gsopentracing;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks records of each partition that were handed to worker threads, and acknowledges an offset only once
+ * it and every earlier offset of the same partition have completed. Records complete out of order, but the
+ * committed offset only ever moves forward over a contiguous prefix.
+ */
+class PartitionOffsetTracker {
+    private final Map<TopicPartition, PartitionQueue> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * Must be called from the listener thread, in poll order.
+     */
+    Entry track(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment) {
+        PartitionQueue queue = partitions.computeIfAbsent(
+                new TopicPartition(record.topic(), record.partition()), ignored -> new PartitionQueue());
+        Entry entry = new Entry(queue, acknowledgment);
+        synchronized (queue) {
+            queue.entries.addLast(entry);
+        }
+        return entry;
+    }
+
+    void complete(Entry entry) {
+        PartitionQueue queue = entry.queue;
+        synchronized (queue) {
+            entry.done = true;
+            if (queue.revoked) {
+                return;
+            }
+            Acknowledgment last = null;
+            while (!queue.entries.isEmpty() && queue.entries.peekFirst().done) {
+                last = queue.entries.pollFirst().acknowledgment;
+            }
+            // acknowledging under the lock keeps two workers from committing offsets out of order
+            if (last != null) {
+                last.acknowledge();
+            }
+        }
+    }
+
+    /**
+     * Forgets revoked partitions; work still in flight for them finishes but is no longer committed here,
+     * the new owner re-reads it from the last committed offset.
+     */
+    void revoke(Collection<TopicPartition> revoked) {
+        for (TopicPartition partition : revoked) {
+            PartitionQueue queue = partitions.remove(partition);
+            if (queue != null) {
+                synchronized (queue) {
+                    queue.revoked = true;
+                    queue.entries.clear();
+                }
+            }
+        }
+    }
+
+    private static final class PartitionQueue {
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private boolean revoked;
+    }
+
+    static final class Entry {
+        private final PartitionQueue queue;
+        private final Acknowledgment acknowledgment;
+        private boolean done;
+
+        private Entry(PartitionQueue queue, Acknowledgment acknowledgment) {
+            this.queue = queue;
+            this.acknowledgment = acknowledgment;
+        }
+    }
+}
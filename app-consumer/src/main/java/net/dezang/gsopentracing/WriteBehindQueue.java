@@ -0,0 +1,199 @@
+package net.dezang.gsopentracing;
+
+import io.opentracing.References;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind stage in front of a batch writer: records are queued by the listener thread and written by one
+ * flusher thread in batches of up to {@code batchSize}, or whatever arrived once the oldest queued record has
+ * waited {@code flushInterval}. Each flush runs in one {@code saveToDb-batch} span that follows from the
+ * {@code consumed} span of every record in it.
+ * <p>
+ * A record's span is finished and its {@code onDurable} callback run only after the writer returned, i.e. the
+ * batch is committed; a failed batch is retried with backoff until it succeeds or the queue is closed.
+ * <p>
+ * {@link #add} never blocks. Once {@code capacity} records are queued, e.g. while the flusher retries, it runs
+ * {@code pause}, which stops the listener container from fetching; records of the poll in progress are still
+ * queued past {@code capacity}. The flusher runs {@code resume} once the queue is down to half of it. A paused
+ * consumer keeps polling, so it stays in its group however long the database is away.
+ */
+@Log4j2
+class WriteBehindQueue implements AutoCloseable {
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    // how long the flusher waits for more records before it looks at running again
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Tracer tracer;
+    private final Consumer<List<ConsumerRecord<String, String>>> writer;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Runnable pause;
+    private final Runnable resume;
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * @param pause  runs on the listener thread when {@code capacity} records are queued
+     * @param resume runs on the flusher thread when the queue is down to half of {@code capacity} again
+     */
+    WriteBehindQueue(Tracer tracer, Consumer<List<ConsumerRecord<String, String>>> writer,
+                     int capacity, int batchSize, Duration flushInterval, Runnable pause, Runnable resume) {
+        this.tracer = tracer;
+        this.writer = writer;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.pause = pause;
+        this.resume = resume;
+        this.flusher = new Thread(this::run, "write-behind-flusher");
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the record, pausing the listener container when the queue is full.
+     *
+     * @param span       finished once the record is stored
+     * @param onDurable  runs on the flusher thread once the record is stored
+     */
+    void add(ConsumerRecord<String, String> record, Span span, Runnable onDurable) {
+        queue.add(new Pending(record, span, onDurable, System.nanoTime()));
+        if (queue.size() >= capacity && paused.compareAndSet(false, true)) {
+            log.info("write-behind queue holds {} records, pausing the listener", queue.size());
+            pause.run();
+        }
+    }
+
+    private void resumeIfDrained() {
+        if (paused.get() && queue.size() <= capacity / 2 && paused.compareAndSet(true, false)) {
+            log.info("write-behind queue down to {} records, resuming the listener", queue.size());
+            resume.run();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                Pending first = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.queuedNanos + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    // on close whatever is queued is flushed at once
+                    if (batch.size() == batchSize || wait <= 0 || !running) {
+                        break;
+                    }
+                    Pending next = queue.poll(Math.min(wait, POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+                batch.clear();
+                resumeIfDrained();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(List<Pending> batch) throws InterruptedException {
+        Tracer.SpanBuilder builder = tracer.buildSpan("saveToDb-batch")
+                .withTag("batch.size", batch.size());
+        List<ConsumerRecord<String, String>> records = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            builder.addReference(References.FOLLOWS_FROM, pending.span.context());
+            records.add(pending.record);
+        }
+        Span span = builder.start();
+        boolean durable = false;
+        try (Scope ignored = tracer.scopeManager().activate(span)) {
+            durable = write(records, span);
+        } finally {
+            span.finish();
+        }
+        for (Pending pending : batch) {
+            if (durable) {
+                pending.span.finish();
+                pending.onDurable.run();
+            } else {
+                // not acknowledged, so the record is read again after a restart or rebalance
+                Tags.ERROR.set(pending.span, true);
+                pending.span.log(Map.of("event", "error",
+                        "message", "write-behind closed before the record was stored"));
+                pending.span.finish();
+            }
+        }
+    }
+
+    private boolean write(List<ConsumerRecord<String, String>> records, Span span) throws InterruptedException {
+        long backoffMillis = 100;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writer.accept(records);
+                if (attempt > 1) {
+                    span.setTag("attempts", attempt);
+                }
+                return true;
+            } catch (RuntimeException e) {
+                log.warn("write-behind flush of {} records failed, attempt {}", records.size(), attempt, e);
+                span.log(Map.of("event", "error", "error.object", e, "attempt", attempt));
+                if (!running) {
+                    Tags.ERROR.set(span, true);
+                    return false;
+                }
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Stops taking new batches once the queue is drained; a batch that keeps failing is given up after its
+     * current attempt, and after 30s the flusher is interrupted.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if (flusher.isAlive()) {
+            flusher.interrupt();
+        }
+    }
+
+    private static final class Pending {
+        private final ConsumerRecord<String, String> record;
+        private final Span span;
+        private final Runnable onDurable;
+        private final long queuedNanos;
+
+        private Pending(ConsumerRecord<String, String> record, Span span, Runnable onDurable, long queuedNanos) {
+            this.record = record;
+            this.span = span;
+            this.onDurable = onDurable;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+}
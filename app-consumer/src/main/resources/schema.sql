@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS consumed_record (
+    topic         VARCHAR(249) NOT NULL,
+    partition_id  INT          NOT NULL,
+    record_offset BIGINT       NOT NULL,
+    record_key    VARCHAR(1024),
+    record_value  CLOB,
+    trace_id      VARCHAR(32),
+    stored_at     TIMESTAMP    DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    PRIMARY KEY (topic, partition_id, record_offset)
+);
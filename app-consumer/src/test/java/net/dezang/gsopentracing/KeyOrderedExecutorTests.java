@@ -0,0 +1,51 @@
+package net.dezang.gsopentracing;
+
+import net.dezang.gsopentracing.tracing.concurrent.VirtualThreads;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class KeyOrderedExecutorTests {
+
+    @Test
+    void runsTasksOfOneKeyInSubmissionOrder() throws InterruptedException {
+        List<Integer> done = new CopyOnWriteArrayList<>();
+        KeyOrderedExecutor executor = KeyOrderedExecutor.create(4, 10, false);
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            executor.execute("key", () -> done.add(task));
+        }
+        executor.close();
+
+        assertThat(done).hasSize(100).isSorted();
+    }
+
+    @Test
+    void bindsVirtualThreadsToBoundedLanes() throws InterruptedException {
+        assumeTrue(VirtualThreads.isSupported());
+
+        KeyOrderedExecutor executor = KeyOrderedExecutor.create(0, 1000, true);
+        executor.close();
+
+        assertThat(executor.lanes()).isEqualTo(KeyOrderedExecutor.VIRTUAL_LANES);
+    }
+
+    @Test
+    void fallsBackToPlatformLanesWithoutVirtualThreads() throws InterruptedException {
+        assumeFalse(VirtualThreads.isSupported());
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        KeyOrderedExecutor executor = KeyOrderedExecutor.create(0, 1000, true);
+        executor.execute("key", () -> threads.add(Thread.currentThread().getName()));
+        executor.close();
+
+        assertThat(executor.lanes()).isEqualTo(Runtime.getRuntime().availableProcessors());
+        assertThat(threads).hasSize(1);
+        assertThat(threads.get(0)).startsWith("consumer-worker-");
+    }
+}
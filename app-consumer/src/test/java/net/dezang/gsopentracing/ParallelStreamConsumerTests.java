@@ -0,0 +1,111 @@
+package net.dezang.gsopentracing;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ParallelStreamConsumerTests {
+    private static final String TOPIC = "test.tracing.stream";
+
+    private final KafkaHeadersCodec codec = new KafkaHeadersCodec(false);
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new InMemoryReporter())
+            .registerExtractor(KafkaHeadersCodec.FORMAT, codec)
+            .registerInjector(KafkaHeadersCodec.FORMAT, codec)
+            .build();
+    private final ConsumerApp.Repository repository = mock(ConsumerApp.Repository.class);
+    private final KeyOrderedExecutor executor = new KeyOrderedExecutor(Executors.defaultThreadFactory(), 1, 10);
+    private final RecordLatencyTracker latencyTracker =
+            new RecordLatencyTracker(new SimpleMeterRegistry(), Duration.ZERO);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, String> kafkaTemplate = mock(KafkaTemplate.class);
+    private final ConsumerApp.ParallelStreamConsumer consumer = new ConsumerApp.ParallelStreamConsumer(tracer,
+            repository, executor, new PartitionOffsetTracker(), latencyTracker, kafkaTemplate);
+
+    @AfterEach
+    void close() throws InterruptedException {
+        executor.close();
+        latencyTracker.close();
+        tracer.close();
+    }
+
+    @Test
+    void acknowledgesSavedRecord() throws InterruptedException {
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        consumer.consumeFromStream(record(0), acknowledgment);
+
+        verify(acknowledgment, timeout(5000)).acknowledge();
+    }
+
+    @Test
+    void failedRecordIsNotAcknowledgedWhenItCannotBeDeadLettered() throws InterruptedException {
+        doThrow(new IllegalStateException("database down")).when(repository).saveToDb();
+        SettableListenableFuture<SendResult<String, String>> sent = new SettableListenableFuture<>();
+        sent.setException(new IllegalStateException("broker down"));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent);
+        Acknowledgment failed = mock(Acknowledgment.class);
+        Acknowledgment next = mock(Acknowledgment.class);
+
+        consumer.consumeFromStream(record(0), failed);
+        verify(kafkaTemplate, timeout(5000)).send(any(ProducerRecord.class));
+        doNothing().when(repository).saveToDb();
+        consumer.consumeFromStream(record(1), next);
+        executor.close();
+
+        // the later record is done, but committing its offset would skip the failed one
+        verify(failed, never()).acknowledge();
+        verify(next, never()).acknowledge();
+    }
+
+    @Test
+    void failedRecordIsAcknowledgedOnceDeadLettered() throws InterruptedException {
+        doThrow(new IllegalStateException("database down")).when(repository).saveToDb();
+        SettableListenableFuture<SendResult<String, String>> sent = new SettableListenableFuture<>();
+        sent.set(null);
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        consumer.consumeFromStream(record(0), acknowledgment);
+
+        verify(acknowledgment, timeout(5000)).acknowledge();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, String>> deadLetter = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(deadLetter.capture());
+        assertThat(deadLetter.getValue().topic())
+                .isEqualTo(TOPIC + ConsumerApp.ParallelStreamConsumer.DEAD_LETTER_SUFFIX);
+        assertThat(deadLetter.getValue().value()).isEqualTo("value-0");
+        assertThat(deadLetter.getValue().headers().lastHeader(ConsumerApp.ParallelStreamConsumer.EXCEPTION_HEADER))
+                .isNotNull();
+    }
+
+    private static ConsumerRecord<String, String> record(long offset) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, "key-" + offset, "value-" + offset);
+    }
+}
@@ -0,0 +1,114 @@
+package net.dezang.gsopentracing;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class WriteBehindQueueTests {
+    private static final String TOPIC = "test.tracing.stream";
+
+    private final InMemoryReporter finished = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(finished)
+            .build();
+    private final List<List<ConsumerRecord<String, String>>> written = new CopyOnWriteArrayList<>();
+    private final Runnable pause = mock(Runnable.class);
+    private final Runnable resume = mock(Runnable.class);
+    private WriteBehindQueue queue;
+
+    @AfterEach
+    void close() throws InterruptedException {
+        queue.close();
+        tracer.close();
+    }
+
+    @Test
+    void writesFullBatches() throws InterruptedException {
+        queue = new WriteBehindQueue(tracer, written::add, 100, 3, Duration.ofMinutes(1), pause, resume);
+        CountDownLatch durable = new CountDownLatch(6);
+
+        for (int i = 0; i < 6; i++) {
+            queue.add(record(i), tracer.buildSpan("consumed").start(), durable::countDown);
+        }
+
+        assertThat(durable.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(written).extracting(List::size).containsExactly(3, 3);
+        assertThat(written.stream().flatMap(List::stream).map(ConsumerRecord::offset).collect(Collectors.toList()))
+                .containsExactly(0L, 1L, 2L, 3L, 4L, 5L);
+        assertThat(finished.getSpans()).extracting(JaegerSpan::getOperationName)
+                .containsOnly("consumed", "saveToDb-batch")
+                .filteredOn("saveToDb-batch"::equals)
+                .hasSize(2);
+        verify(pause, never()).run();
+    }
+
+    @Test
+    void flushesQueuedRecordsOnClose() throws InterruptedException {
+        queue = new WriteBehindQueue(tracer, written::add, 100, 10, Duration.ofMinutes(1), pause, resume);
+        AtomicInteger durable = new AtomicInteger();
+        queue.add(record(0), tracer.buildSpan("consumed").start(), durable::incrementAndGet);
+        queue.add(record(1), tracer.buildSpan("consumed").start(), durable::incrementAndGet);
+
+        queue.close();
+
+        assertThat(written).extracting(List::size).containsExactly(2);
+        assertThat(durable).hasValue(2);
+        assertThat(finished.getSpans()).extracting(JaegerSpan::getOperationName)
+                .containsExactlyInAnyOrder("consumed", "consumed", "saveToDb-batch");
+    }
+
+    @Test
+    void pausesWhenFullAndResumesWhenDrained() throws InterruptedException {
+        CountDownLatch databaseUp = new CountDownLatch(1);
+        Consumer<List<ConsumerRecord<String, String>>> writer = records -> {
+            try {
+                databaseUp.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.add(records);
+        };
+        queue = new WriteBehindQueue(tracer, writer, 4, 1, Duration.ZERO, pause, resume);
+
+        // the flusher holds the first record in its blocked batch, the rest fill the queue
+        for (int i = 0; i < 5; i++) {
+            queue.add(record(i), tracer.buildSpan("consumed").start(), () -> { });
+        }
+        verify(pause).run();
+        verify(resume, never()).run();
+        // adding to a full queue neither blocks nor pauses again
+        queue.add(record(5), tracer.buildSpan("consumed").start(), () -> { });
+        verify(pause).run();
+
+        databaseUp.countDown();
+
+        verify(resume, timeout(5000)).run();
+        queue.close();
+        assertThat(written.stream().mapToInt(List::size).sum()).isEqualTo(6);
+        verify(pause).run();
+    }
+
+    private static ConsumerRecord<String, String> record(long offset) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, "key-" + offset, "value-" + offset);
+    }
+}
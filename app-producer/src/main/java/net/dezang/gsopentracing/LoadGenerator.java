@@ -0,0 +1,185 @@
+package net.dezang.gsopentracing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@code producer.load.threads} sending threads against a {@link KafkaTemplate} and records the
+ * send-to-ack latency of every message into an HdrHistogram {@link Recorder} from the send callbacks.
+ * Achieved throughput and p50/p99/p999 are logged every {@code report-interval} and once more for the whole run.
+ * <p>
+ * Payload and keys are built up front, so the sending loop itself allocates nothing but what the producer does.
+ */
+@Log4j2
+class LoadGenerator implements AutoCloseable {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final LoadProperties properties;
+    private final String payload;
+    private final String[] keys;
+    private final double[] keyCdf;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService reporter;
+    private volatile boolean running;
+    private long startNanos;
+    private long lastReportNanos;
+
+    LoadGenerator(KafkaTemplate<String, String> kafkaTemplate, LoadProperties properties) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.properties = properties;
+        char[] chars = new char[properties.getMessageSize()];
+        Arrays.fill(chars, 'x');
+        this.payload = new String(chars);
+        this.keys = new String[properties.getKeyDistribution() == LoadProperties.KeyDistribution.NONE ? 0 : properties.getKeys()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key-" + i;
+        }
+        this.keyCdf = properties.getKeyDistribution() == LoadProperties.KeyDistribution.ZIPF
+                ? zipfCdf(keys.length, properties.getZipfExponent()) : null;
+        this.senders = Executors.newFixedThreadPool(properties.getThreads(),
+                new ThreadFactoryBuilder().setNameFormat("load-sender-%d").build());
+        this.reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("load-reporter").setDaemon(true).build());
+    }
+
+    void start() {
+        log.info("load generator starting: {}", properties);
+        running = true;
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        long deadline = properties.getDuration().isZero() ? Long.MAX_VALUE : startNanos + properties.getDuration().toNanos();
+        for (int i = 0; i < properties.getThreads(); i++) {
+            senders.execute(properties.getMode() == LoadProperties.Mode.OPEN ? () -> openLoop(deadline) : () -> closedLoop(deadline));
+        }
+        senders.shutdown();
+        long interval = properties.getReportInterval().toNanos();
+        reporter.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    private void openLoop(long deadline) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(properties.getThreads()) / Math.max(1, properties.getRate());
+        long next = System.nanoTime();
+        while (running && next < deadline) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            send(next, null);
+            next += intervalNanos;
+        }
+    }
+
+    private void closedLoop(long deadline) {
+        Semaphore outstanding = new Semaphore(properties.getConcurrency());
+        try {
+            while (running && System.nanoTime() < deadline) {
+                outstanding.acquire();
+                send(System.nanoTime(), outstanding);
+            }
+            outstanding.acquire(properties.getConcurrency());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(long intendedNanos, Semaphore outstanding) {
+        try {
+            kafkaTemplate.send(properties.getTopic(), nextKey(), payload).addCallback(
+                    result -> acked(intendedNanos, outstanding),
+                    error -> {
+                        errors.increment();
+                        acked(intendedNanos, outstanding);
+                    });
+        } catch (RuntimeException e) {
+            errors.increment();
+            if (outstanding != null) {
+                outstanding.release();
+            }
+        }
+    }
+
+    private void acked(long intendedNanos, Semaphore outstanding) {
+        recorder.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (System.nanoTime() - intendedNanos) / 1000));
+        if (outstanding != null) {
+            outstanding.release();
+        }
+    }
+
+    private String nextKey() {
+        if (keys.length == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (keyCdf == null) {
+            return keys[random.nextInt(keys.length)];
+        }
+        int index = Arrays.binarySearch(keyCdf, random.nextDouble());
+        return keys[Math.min(keys.length - 1, index < 0 ? -index - 1 : index)];
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    // runs on the reporter thread only
+    private void report() {
+        boolean finished = senders.isTerminated();
+        if (finished) {
+            kafkaTemplate.flush();
+        }
+        long now = System.nanoTime();
+        Histogram interval = recorder.getIntervalHistogram();
+        total.add(interval);
+        log.info("load: {} msg/s acked, {} errors, latency us p50={} p99={} p999={} max={}",
+                rate(interval.getTotalCount(), now - lastReportNanos), errors.sum(),
+                interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+                interval.getValueAtPercentile(99.9), interval.getMaxValue());
+        lastReportNanos = now;
+        if (finished) {
+            log.info("load generator finished in {} ms: {} acked, {} errors, {} msg/s, latency us p50={} p99={} p999={} max={}",
+                    TimeUnit.NANOSECONDS.toMillis(now - startNanos), total.getTotalCount(), errors.sum(),
+                    rate(total.getTotalCount(), now - startNanos),
+                    total.getValueAtPercentile(50), total.getValueAtPercentile(99), total.getValueAtPercentile(99.9),
+                    total.getMaxValue());
+            reporter.shutdown();
+        }
+    }
+
+    private static long rate(long count, long nanos) {
+        return nanos == 0 ? 0 : count * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        senders.awaitTermination(30, TimeUnit.SECONDS);
+        reporter.shutdownNow();
+    }
+}
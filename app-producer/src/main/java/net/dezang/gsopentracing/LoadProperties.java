@@ -0,0 +1,70 @@
+package net.dezang.gsopentracing;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Load generator settings, bound from {@code producer.load.*}. Only used when {@code producer.load.enabled=true}.
+ */
+@Data
+@ConfigurationProperties(prefix = "producer.load")
+class LoadProperties {
+    private boolean enabled = false;
+
+    private String topic = "test.tracing";
+
+    private Mode mode = Mode.OPEN;
+
+    /**
+     * Target messages per second over all threads. Only OPEN mode is paced.
+     */
+    private int rate = 10000;
+
+    private int threads = 4;
+
+    /**
+     * CLOSED mode: sends each thread keeps unacknowledged; the next one goes out when one is acked.
+     */
+    private int concurrency = 64;
+
+    private int messageSize = 100;
+
+    private KeyDistribution keyDistribution = KeyDistribution.UNIFORM;
+
+    /**
+     * Number of distinct keys for UNIFORM and ZIPF.
+     */
+    private int keys = 1000;
+
+    /**
+     * ZIPF exponent; higher values concentrate more of the load on the first keys.
+     */
+    private double zipfExponent = 1.0;
+
+    /**
+     * How long to generate load; zero runs until shutdown.
+     */
+    private Duration duration = Duration.ofMinutes(1);
+
+    private Duration reportInterval = Duration.ofSeconds(10);
+
+    enum Mode {
+        /**
+         * Sends on a fixed schedule whatever the acks do; latency is measured from the scheduled send time,
+         * so a stalled producer shows up in the histogram instead of silently lowering the rate.
+         */
+        OPEN,
+        /**
+         * Sends as fast as acks come back, with {@code concurrency} sends outstanding per thread.
+         */
+        CLOSED
+    }
+
+    enum KeyDistribution {
+        NONE,
+        UNIFORM,
+        ZIPF
+    }
+}
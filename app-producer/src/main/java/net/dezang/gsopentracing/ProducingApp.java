@@ -1,15 +1,16 @@
 package net.dezang.gsopentracing;
 
-import io.jaegertracing.internal.samplers.ConstSampler;
 import io.opentracing.Tracer;
 import io.opentracing.contrib.kafka.spring.TracingProducerFactory;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
@@ -26,38 +27,35 @@ public class ProducingApp {
 
     @Configuration
     @RequiredArgsConstructor
+    @EnableConfigurationProperties(LoadProperties.class)
     static class Config {
-        @Value("${spring.application.name}")
-        private String applicationName;
         private final KafkaProperties kafkaProperties;
-
-        @Bean
-        Tracer tracer() {
-            io.jaegertracing.Configuration.SamplerConfiguration samplerConfig = io.jaegertracing.Configuration.SamplerConfiguration.fromEnv().withType(ConstSampler.TYPE).withParam(1);
-            io.jaegertracing.Configuration.SenderConfiguration senderConfig = io.jaegertracing.Configuration.SenderConfiguration.fromEnv()
-                    .withAgentHost("localhost")
-                    .withAgentPort(6831);
-            io.jaegertracing.Configuration.ReporterConfiguration reporterConfig = io.jaegertracing.Configuration.ReporterConfiguration.fromEnv().withLogSpans(true).withSender(senderConfig);
-            io.jaegertracing.Configuration config = new io.jaegertracing.Configuration(applicationName)
-                    .withSampler(samplerConfig)
-                    .withReporter(reporterConfig);
-            return config.getTracer();
-        }
+        private final Tracer tracer;
 
         @Bean
         ProducerFactory<String, String> producerFactory() {
             return new TracingProducerFactory<>(new DefaultKafkaProducerFactory<>(
-                    kafkaProperties.buildProducerProperties()), tracer());
+                    kafkaProperties.buildProducerProperties()), tracer);
         }
 
         @Bean
         KafkaTemplate<String, String> kafkaTemplate() {
             return new KafkaTemplate<>(producerFactory());
         }
+
+        @Bean(initMethod = "start")
+        @Lazy(false)
+        @ConditionalOnProperty(name = "producer.load.enabled", havingValue = "true")
+        LoadGenerator loadGenerator(LoadProperties loadProperties) {
+            return new LoadGenerator(kafkaTemplate(), loadProperties);
+        }
     }
 
+    // @Scheduled methods are only registered for beans that get created, so it stays eager under lazy init
     @Component
+    @Lazy(false)
     @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "producer.load.enabled", havingValue = "false", matchIfMissing = true)
     static class SimpleProducer {
         private final KafkaTemplate<String, String> kafkaTemplate;
 
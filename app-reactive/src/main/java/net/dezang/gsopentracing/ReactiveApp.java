@@ -0,0 +1,224 @@
+package net.dezang.gsopentracing;
+
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.contrib.kafka.TracingKafkaUtils;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import io.opentracing.tag.Tags;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import net.dezang.gsopentracing.tracing.reactor.ReactorTracing;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+import reactor.kafka.sender.SenderRecord;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reactive variant of app-rest-producer ({@code GET /send}) and app-consumer ({@code test.tracing.stream})
+ * on reactor-kafka and WebFlux. Spans are passed in the Reactor {@code Context} by {@link ReactorTracing},
+ * never through thread locals, and the trace context crosses Kafka in {@code TracingKafkaUtils} headers.
+ */
+@SpringBootApplication
+public class ReactiveApp {
+    public static void main(String[] args) {
+        SpringApplication.run(ReactiveApp.class, args);
+    }
+
+    @Configuration
+    @RequiredArgsConstructor
+    static class Config {
+        private final KafkaProperties kafkaProperties;
+
+        @Bean(destroyMethod = "close")
+        KafkaSender<String, String> kafkaSender(@Value("${reactive.producer.max-in-flight:1024}") int maxInFlight) {
+            return KafkaSender.create(SenderOptions.<String, String>create(kafkaProperties.buildProducerProperties())
+                    .maxInFlight(maxInFlight));
+        }
+
+        @Bean
+        @ConditionalOnProperty(name = "reactive.consumer.enabled", havingValue = "true", matchIfMissing = true)
+        KafkaReceiver<String, String> kafkaReceiver(@Value("${reactive.consumer.commit-batch-size:500}") int commitBatchSize,
+                                                    @Value("${reactive.consumer.commit-interval:1s}") Duration commitInterval) {
+            return KafkaReceiver.create(ReceiverOptions.<String, String>create(kafkaProperties.buildConsumerProperties())
+                    .commitBatchSize(commitBatchSize)
+                    .commitInterval(commitInterval)
+                    .subscription(List.of("test.tracing.stream")));
+        }
+    }
+
+    /**
+     * Server span per request, extracted from the HTTP headers and handed down in the Reactor {@code Context}.
+     */
+    @Component
+    @RequiredArgsConstructor
+    static class ServerSpanWebFilter implements WebFilter {
+        private final Tracer tracer;
+        private final ReactorTracing reactorTracing;
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+            ServerHttpRequest request = exchange.getRequest();
+            SpanContext parent = tracer.extract(Format.Builtin.HTTP_HEADERS,
+                    new TextMapAdapter(request.getHeaders().toSingleValueMap()));
+            return reactorTracing.traced(request.getMethodValue() + " " + request.getPath().value(),
+                    builder -> builder.asChildOf(parent)
+                            .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                            .withTag(Tags.HTTP_METHOD.getKey(), request.getMethodValue())
+                            .withTag(Tags.HTTP_URL.getKey(), request.getURI().toString()),
+                    span -> chain.filter(exchange).doOnTerminate(() -> {
+                        HttpStatus status = exchange.getResponse().getStatusCode();
+                        Tags.HTTP_STATUS.set(span, status != null ? status.value() : HttpStatus.OK.value());
+                    }));
+        }
+    }
+
+    /**
+     * {@code GET /send} of app-rest-producer without a blocked thread: the work is a timer and the send
+     * completes with the Kafka acknowledgement. Answers 429 beyond {@code reactive.producer.max-in-flight}
+     * pending requests and 502 when the send fails.
+     */
+    @RestController
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "reactive.producer.enabled", havingValue = "true", matchIfMissing = true)
+    static class ReactiveRestProducer {
+        private static final String TOPIC = "test.tracing";
+
+        private final Tracer tracer;
+        private final ReactorTracing reactorTracing;
+        private final KafkaSender<String, String> kafkaSender;
+        @Value("${reactive.producer.max-in-flight:1024}")
+        private int maxInFlight;
+        private Semaphore inFlight;
+
+        @PostConstruct
+        void init() {
+            inFlight = new Semaphore(maxInFlight);
+        }
+
+        @GetMapping("send")
+        public Mono<ResponseEntity<?>> send(@RequestParam String message) {
+            if (!inFlight.tryAcquire()) {
+                return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body("too many sends in flight"));
+            }
+            return work()
+                    .then(reactorTracing.traced("send",
+                            builder -> builder.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_PRODUCER)
+                                    .withTag(Tags.MESSAGE_BUS_DESTINATION.getKey(), TOPIC),
+                            span -> {
+                                Headers headers = new RecordHeaders();
+                                TracingKafkaUtils.inject(span.context(), headers, tracer);
+                                ProducerRecord<String, String> record = new ProducerRecord<>(TOPIC, null, null,
+                                        message + " by reactive rest producer", headers);
+                                return kafkaSender.send(Mono.just(SenderRecord.create(record, message))).single();
+                            }))
+                    .<ResponseEntity<?>>map(result -> {
+                        RecordMetadata metadata = result.recordMetadata();
+                        return ResponseEntity.ok(Map.of(
+                                "message", result.correlationMetadata(),
+                                "partition", metadata.partition(),
+                                "offset", metadata.offset()));
+                    })
+                    .onErrorResume(error -> Mono.just(
+                            ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(String.valueOf(error.getMessage()))))
+                    .doFinally(signal -> inFlight.release());
+        }
+
+        private Mono<Void> work() {
+            return reactorTracing.traced("work-in-rest-producer", builder -> builder.withTag("sleep-time", 100),
+                    span -> Mono.delay(Duration.ofMillis(100)).then());
+        }
+    }
+
+    /**
+     * {@code ConsumerApp.StreamConsumer} as a pipeline: up to {@code reactive.consumer.concurrency} records are
+     * worked on at once, across and within partitions, and come out in receive order, so acknowledging them
+     * in that order never commits past an unfinished record. Offsets are committed every
+     * {@code commit-batch-size} acknowledgements or {@code commit-interval}. Once {@code concurrency} records
+     * are in flight there is no demand and reactor-kafka pauses the consumer until there is.
+     * <p>
+     * Not lazy under the {@code fast-startup} profile, nothing else would create it and start receiving.
+     */
+    @Log4j2
+    @Component
+    @Lazy(false)
+    @RequiredArgsConstructor
+    @ConditionalOnProperty(name = "reactive.consumer.enabled", havingValue = "true", matchIfMissing = true)
+    static class ReactiveConsumer {
+        private final Tracer tracer;
+        private final ReactorTracing reactorTracing;
+        private final KafkaReceiver<String, String> kafkaReceiver;
+        private final RecordLatencyTracker latencyTracker;
+        @Value("${reactive.consumer.concurrency:256}")
+        private int concurrency;
+        private Disposable subscription;
+
+        @PostConstruct
+        void start() {
+            subscription = kafkaReceiver.receive()
+                    .doOnNext(record -> latencyTracker.received(record.topic(), record.partition(), record.headers()))
+                    .flatMapSequential(record -> consume(record).thenReturn(record), concurrency)
+                    .doOnNext(record -> {
+                        latencyTracker.processed(record.topic(), record.partition(), record.headers());
+                        record.receiverOffset().acknowledge();
+                    })
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                            .maxBackoff(Duration.ofSeconds(30))
+                            .doBeforeRetry(signal -> log.warn("receiver failed, resubscribing", signal.failure())))
+                    .subscribe();
+        }
+
+        @PreDestroy
+        void stop() {
+            subscription.dispose();
+        }
+
+        private Mono<Void> consume(ReceiverRecord<String, String> record) {
+            log.debug("received message={}", record.value());
+            SpanContext spanContext = TracingKafkaUtils.extractSpanContext(record.headers(), tracer);
+            return reactorTracing.traced("consumed",
+                    builder -> builder.asChildOf(spanContext).withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT),
+                    span -> saveToDb());
+        }
+
+        private Mono<Void> saveToDb() {
+            return reactorTracing.traced("saveToDb", builder -> builder,
+                    span -> Mono.delay(Duration.ofMillis(250)).then());
+        }
+    }
+}
@@ -1,27 +1,63 @@
 package net.dezang.gsopentracing;
 
-import io.jaegertracing.internal.samplers.ConstSampler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.jaegertracing.internal.JaegerSpanContext;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
 import io.opentracing.contrib.kafka.spring.TracingProducerFactory;
+import io.opentracing.log.Fields;
+import io.opentracing.tag.Tags;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.concurrent.VirtualThreads;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaProducerException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
 @EnableScheduling
 @SpringBootApplication
 public class RestProducingApp {
@@ -32,33 +68,43 @@ public class RestProducingApp {
     @Configuration
     @RequiredArgsConstructor
     static class Config {
-        @Value("${spring.application.name}")
-        private String applicationName;
         private final KafkaProperties kafkaProperties;
-
-        @Bean
-        Tracer tracer() {
-            io.jaegertracing.Configuration.SamplerConfiguration samplerConfig = io.jaegertracing.Configuration.SamplerConfiguration.fromEnv().withType(ConstSampler.TYPE).withParam(1);
-            io.jaegertracing.Configuration.SenderConfiguration senderConfig = io.jaegertracing.Configuration.SenderConfiguration.fromEnv()
-                    .withAgentHost("localhost")
-                    .withAgentPort(6831);
-            io.jaegertracing.Configuration.ReporterConfiguration reporterConfig = io.jaegertracing.Configuration.ReporterConfiguration.fromEnv().withLogSpans(true).withSender(senderConfig);
-            io.jaegertracing.Configuration config = new io.jaegertracing.Configuration(applicationName)
-                    .withSampler(samplerConfig)
-                    .withReporter(reporterConfig);
-            return config.getTracer();
-        }
+        private final Tracer tracer;
 
         @Bean
         ProducerFactory<String, String> producerFactory() {
             return new TracingProducerFactory<>(new DefaultKafkaProducerFactory<>(
-                    kafkaProperties.buildProducerProperties()), tracer());
+                    kafkaProperties.buildProducerProperties()), tracer);
         }
 
         @Bean
         KafkaTemplate<String, String> kafkaTemplate() {
             return new KafkaTemplate<>(producerFactory());
         }
+
+        @Bean(destroyMethod = "shutdown")
+        ExecutorService restWorkExecutor(@Value("${rest.async.threads:64}") int threads,
+                                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+            if (VirtualThreads.enabled(virtualThreads)) {
+                // rest.async.max-in-flight alone bounds the blocked work
+                return VirtualThreads.newThreadPerTaskExecutor("rest-work-");
+            }
+            return Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("rest-work-%d").build());
+        }
+
+        /**
+         * Producer of {@code POST /send/batch} only, tuned for batching by {@code rest.batch.*}.
+         */
+        @Bean(destroyMethod = "destroy")
+        DefaultKafkaProducerFactory<String, String> batchProducerFactory(
+                @Value("${rest.batch.linger-ms:20}") int lingerMs,
+                @Value("${rest.batch.batch-size:262144}") int batchSize) {
+            Map<String, Object> properties = kafkaProperties.buildProducerProperties();
+            properties.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+            properties.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+            return new DefaultKafkaProducerFactory<>(properties);
+        }
     }
 
     @RestController
@@ -67,6 +113,15 @@ public class RestProducingApp {
     static class SimpleRestProducer {
         private final Tracer tracer;
         private final KafkaTemplate<String, String> kafkaTemplate;
+        private final ExecutorService restWorkExecutor;
+        @Value("${rest.async.max-in-flight:10000}")
+        private int maxInFlight;
+        private Semaphore inFlight;
+
+        @PostConstruct
+        void init() {
+            inFlight = new Semaphore(maxInFlight);
+        }
 
         @GetMapping("send")
         public ResponseEntity<?> send(@RequestParam String message) throws InterruptedException {
@@ -76,6 +131,111 @@ public class RestProducingApp {
             return ResponseEntity.ok(message);
         }
 
+        /**
+         * Same as {@link #send} without holding the servlet thread: the work and the send run on
+         * a work pool under the server span of {@code TracingFilter}, which stays open until the
+         * Kafka acknowledgement completes the response. Answers 429 when {@code rest.async.max-in-flight}
+         * sends are pending or the producer buffer is full, 503 when the work pool is full, 504 when the broker
+         * did not answer in time and 502 when the send fails otherwise.
+         */
+        @GetMapping("send-async")
+        public CompletableFuture<ResponseEntity<?>> sendAsync(@RequestParam String message) {
+            if (!inFlight.tryAcquire()) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body("too many sends in flight"));
+            }
+            Span serverSpan = tracer.activeSpan();
+            CompletableFuture<ListenableFuture<SendResult<String, String>>> sending;
+            try {
+                sending = CompletableFuture.supplyAsync(() -> {
+                    try (Scope ignored = serverSpan == null ? null : tracer.scopeManager().activate(serverSpan)) {
+                        log.info(message);
+                        work();
+                        return failIfBlocked(kafkaTemplate.send("test.tracing", message + " by rest producer"));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }, restWorkExecutor);
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                return CompletableFuture.completedFuture(failed(serverSpan, e));
+            }
+            return sending
+                    .thenCompose(future -> future.completable())
+                    .handle((result, error) -> {
+                        inFlight.release();
+                        if (error == null) {
+                            return sent(message, result);
+                        }
+                        return failed(serverSpan, unwrap(error));
+                    });
+        }
+
+        private ResponseEntity<?> sent(String message, SendResult<String, String> result) {
+            RecordMetadata metadata = result.getRecordMetadata();
+            return ResponseEntity.ok(Map.of(
+                    "message", message,
+                    "partition", metadata.partition(),
+                    "offset", metadata.offset()));
+        }
+
+        private ResponseEntity<?> failed(Span serverSpan, Throwable error) {
+            log.warn("send failed", error);
+            if (serverSpan != null) {
+                Tags.ERROR.set(serverSpan, true);
+                serverSpan.log(Map.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, error));
+            }
+            return ResponseEntity.status(status(error)).body(String.valueOf(error.getMessage()));
+        }
+
+        /**
+         * The producer only blocks inside {@code send()}, for at most {@code max.block.ms}, while it waits for
+         * buffer space or for the topic's metadata; acknowledgements time out later. A send that has already
+         * failed with a {@link TimeoutException} when it returns therefore means the producer cannot take more
+         * records right now. This is told by when the send failed rather than by the exception type: the
+         * kafka-clients 2.5 buffer pool throws a plain {@code TimeoutException}, not
+         * {@code BufferExhaustedException}.
+         */
+        private static ListenableFuture<SendResult<String, String>> failIfBlocked(
+                ListenableFuture<SendResult<String, String>> sending) {
+            if (sending.isDone()) {
+                try {
+                    sending.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof TimeoutException) {
+                        throw new ProducerBlockedException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return sending;
+        }
+
+        private static HttpStatus status(Throwable error) {
+            if (error instanceof ProducerBlockedException) {
+                return HttpStatus.TOO_MANY_REQUESTS;
+            }
+            if (error instanceof RejectedExecutionException) {
+                return HttpStatus.SERVICE_UNAVAILABLE;
+            }
+            if (error instanceof TimeoutException) {
+                return HttpStatus.GATEWAY_TIMEOUT;
+            }
+            return HttpStatus.BAD_GATEWAY;
+        }
+
+        private static Throwable unwrap(Throwable error) {
+            while ((error instanceof CompletionException || error instanceof ExecutionException
+                    || error instanceof KafkaProducerException)
+                    && error.getCause() != null) {
+                error = error.getCause();
+            }
+            return error;
+        }
+
         private void work() throws InterruptedException {
             Span span = tracer.buildSpan("work-in-rest-producer").start();
             try (Scope ignored = tracer.scopeManager().activate(span)) {
@@ -86,5 +246,188 @@ public class RestProducingApp {
                 span.finish();
             }
         }
+
+        private static final class ProducerBlockedException extends RuntimeException {
+            private ProducerBlockedException(Throwable cause) {
+                super("producer blocked, its buffer is full or the topic has no metadata: " + cause.getMessage(),
+                        cause);
+            }
+        }
+    }
+
+    /**
+     * {@code POST /send/batch} takes a JSON array or NDJSON of messages (strings, or {@code {"key", "value"}}
+     * objects) and pipelines them through a producer tuned for batching by {@code rest.batch.*}. One
+     * {@code send-batch} span covers the request. Records carry that span's context, encoded once, unless the
+     * trace is sampled and {@code rest.batch.per-record-spans} is on, in which case each record gets its own
+     * {@code send} child span finished on acknowledgement.
+     * <p>
+     * Answers 200 with a summary of the acknowledged offsets per partition and the index and error of every
+     * record that failed, or 502 when all of them failed.
+     */
+    @RestController
+    @RequiredArgsConstructor
+    @Log4j2
+    static class BatchRestProducer {
+        private static final String TOPIC = "test.tracing";
+
+        private final Tracer tracer;
+        private final KafkaProperties kafkaProperties;
+        private final ObjectMapper objectMapper;
+        private final DefaultKafkaProducerFactory<String, String> batchProducerFactory;
+        @Value("${rest.batch.max-records:100000}")
+        private int maxRecords;
+        @Value("${rest.batch.per-record-spans:false}")
+        private boolean perRecordSpans;
+        private KafkaTemplate<String, String> kafkaTemplate;
+
+        @PostConstruct
+        void init() {
+            kafkaTemplate = new KafkaTemplate<>(batchProducerFactory);
+        }
+
+        @PostMapping(path = "send/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+        public CompletableFuture<ResponseEntity<?>> sendBatch(InputStream body) throws IOException {
+            List<ProducerRecord<String, String>> records = new ArrayList<>();
+            try (MappingIterator<JsonNode> messages = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+                while (messages.hasNext()) {
+                    if (records.size() == maxRecords) {
+                        return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                                .body("more than " + maxRecords + " records"));
+                    }
+                    records.add(toRecord(messages.next()));
+                }
+            }
+
+            Span batchSpan = tracer.buildSpan("send-batch")
+                    .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_PRODUCER)
+                    .withTag(Tags.MESSAGE_BUS_DESTINATION.getKey(), TOPIC)
+                    .withTag("batch.size", records.size())
+                    .start();
+            boolean spanPerRecord = perRecordSpans && isSampled(batchSpan);
+            Headers batchHeaders = new RecordHeaders();
+            tracer.inject(batchSpan.context(), KafkaHeadersCodec.FORMAT, batchHeaders);
+
+            List<CompletableFuture<SendResult<String, String>>> results = new ArrayList<>(records.size());
+            try {
+                for (ProducerRecord<String, String> record : records) {
+                    if (spanPerRecord) {
+                        Span span = tracer.buildSpan("send")
+                                .asChildOf(batchSpan)
+                                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_PRODUCER)
+                                .start();
+                        tracer.inject(span.context(), KafkaHeadersCodec.FORMAT, record.headers());
+                        results.add(send(record).whenComplete((r, e) -> span.finish()));
+                    } else {
+                        batchHeaders.forEach(record.headers()::add);
+                        results.add(send(record));
+                    }
+                }
+            } catch (RuntimeException e) {
+                Tags.ERROR.set(batchSpan, true);
+                batchSpan.finish();
+                throw e;
+            }
+
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, error) -> {
+                        BatchSummary summary = BatchSummary.of(results);
+                        if (summary.getFailed() > 0) {
+                            Tags.ERROR.set(batchSpan, true);
+                            log.warn("{} of {} records failed", summary.getFailed(), records.size());
+                        }
+                        batchSpan.finish();
+                        boolean allFailed = !records.isEmpty() && summary.getSent() == 0;
+                        return ResponseEntity.status(allFailed ? HttpStatus.BAD_GATEWAY : HttpStatus.OK).body(summary);
+                    });
+        }
+
+        /**
+         * A send that fails before it reaches the producer's buffer, e.g. when the buffer stays full for
+         * {@code max.block.ms}, fails its future like any other send.
+         */
+        private CompletableFuture<SendResult<String, String>> send(ProducerRecord<String, String> record) {
+            try {
+                return kafkaTemplate.send(record).completable();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private static ProducerRecord<String, String> toRecord(JsonNode message) {
+            if (message.isObject()) {
+                return new ProducerRecord<>(TOPIC, text(message.get("key")), text(message.get("value")));
+            }
+            return new ProducerRecord<>(TOPIC, text(message));
+        }
+
+        private static String text(JsonNode node) {
+            if (node == null || node.isNull()) {
+                return null;
+            }
+            return node.isValueNode() ? node.asText() : node.toString();
+        }
+
+        private static boolean isSampled(Span span) {
+            return !(span.context() instanceof JaegerSpanContext) || ((JaegerSpanContext) span.context()).isSampled();
+        }
+    }
+
+    @Getter
+    static class BatchSummary {
+        private int sent;
+        private int failed;
+        private final Map<Integer, PartitionSummary> partitions = new TreeMap<>();
+        private final List<RecordFailure> failures = new ArrayList<>();
+
+        static BatchSummary of(List<CompletableFuture<SendResult<String, String>>> results) {
+            BatchSummary summary = new BatchSummary();
+            for (int index = 0; index < results.size(); index++) {
+                CompletableFuture<SendResult<String, String>> result = results.get(index);
+                if (result.isCompletedExceptionally()) {
+                    summary.failed++;
+                    summary.failures.add(new RecordFailure(index, failure(result)));
+                    continue;
+                }
+                RecordMetadata metadata = result.join().getRecordMetadata();
+                summary.sent++;
+                summary.partitions.computeIfAbsent(metadata.partition(), partition -> new PartitionSummary())
+                        .add(metadata.offset());
+            }
+            return summary;
+        }
+
+        private static String failure(CompletableFuture<?> result) {
+            try {
+                result.join();
+                return null;
+            } catch (CompletionException e) {
+                Throwable cause = SimpleRestProducer.unwrap(e);
+                return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+            }
+        }
+    }
+
+    /**
+     * A record of the request that was not acknowledged, by its position in the request body.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static class RecordFailure {
+        private final int index;
+        private final String error;
+    }
+
+    @Getter
+    static class PartitionSummary {
+        private int count;
+        private long firstOffset = Long.MAX_VALUE;
+        private long lastOffset = Long.MIN_VALUE;
+
+        void add(long offset) {
+            count++;
+            firstOffset = Math.min(firstOffset, offset);
+            lastOffset = Math.max(lastOffset, offset);
+        }
     }
 }
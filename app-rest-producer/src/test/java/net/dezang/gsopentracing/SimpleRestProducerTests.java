@@ -0,0 +1,88 @@
+package net.dezang.gsopentracing;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimpleRestProducerTests {
+    private static final String TOPIC = "test.tracing";
+
+    private static EmbeddedKafkaBroker broker;
+
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new InMemoryReporter())
+            .build();
+    private final ExecutorService restWorkExecutor = Executors.newFixedThreadPool(4);
+    private DefaultKafkaProducerFactory<String, String> producerFactory;
+
+    @BeforeAll
+    static void startBroker() {
+        broker = new EmbeddedKafkaBroker(1, true, 1, TOPIC);
+        broker.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        broker.destroy();
+    }
+
+    @AfterEach
+    void close() {
+        producerFactory.destroy();
+        restWorkExecutor.shutdownNow();
+        tracer.close();
+    }
+
+    @Test
+    void answers429WhenTheProducerBufferIsFull() throws Exception {
+        // two 16 KB batches fill the buffer, they stay in it for the whole linger
+        producerFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.BUFFER_MEMORY_CONFIG, 32 * 1024,
+                ProducerConfig.BATCH_SIZE_CONFIG, 16 * 1024,
+                ProducerConfig.LINGER_MS_CONFIG, 60_000,
+                ProducerConfig.MAX_BLOCK_MS_CONFIG, 500,
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class));
+        KafkaTemplate<String, String> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        // metadata first, so that only the buffer can block the sends
+        assertThat(kafkaTemplate.partitionsFor(TOPIC)).isNotEmpty();
+        RestProducingApp.SimpleRestProducer producer =
+                new RestProducingApp.SimpleRestProducer(tracer, kafkaTemplate, restWorkExecutor);
+        ReflectionTestUtils.setField(producer, "maxInFlight", 100);
+        producer.init();
+
+        List<CompletableFuture<ResponseEntity<?>>> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(producer.sendAsync("x".repeat(10_000)));
+        }
+
+        ResponseEntity<?> first = (ResponseEntity<?>) CompletableFuture
+                .anyOf(responses.toArray(new CompletableFuture<?>[0]))
+                .get(10, TimeUnit.SECONDS);
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    }
+}
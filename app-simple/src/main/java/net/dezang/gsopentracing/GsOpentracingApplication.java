@@ -1,9 +1,6 @@
 package net.dezang.gsopentracing;
 
 import com.google.common.collect.ImmutableMap;
-import io.jaegertracing.Configuration.ReporterConfiguration;
-import io.jaegertracing.Configuration.SamplerConfiguration;
-import io.jaegertracing.internal.samplers.ConstSampler;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
@@ -15,8 +12,6 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
 
 import java.util.Map;
 
@@ -29,22 +24,6 @@ public class GsOpentracingApplication implements ApplicationRunner {
         SpringApplication.run(GsOpentracingApplication.class, args);
     }
 
-    @Configuration
-    static class Config {
-        @Bean
-        Tracer tracer() {
-            SamplerConfiguration samplerConfig = SamplerConfiguration.fromEnv().withType(ConstSampler.TYPE).withParam(1);
-            io.jaegertracing.Configuration.SenderConfiguration senderConfig = io.jaegertracing.Configuration.SenderConfiguration.fromEnv()
-                    .withAgentHost("localhost")
-                    .withAgentPort(6831);
-            ReporterConfiguration reporterConfig = ReporterConfiguration.fromEnv().withLogSpans(true).withSender(senderConfig);
-            io.jaegertracing.Configuration config = new io.jaegertracing.Configuration("app-simple")
-                    .withSampler(samplerConfig)
-                    .withReporter(reporterConfig);
-            return config.getTracer();
-        }
-    }
-
     @Override
     public void run(ApplicationArguments args) {
         if (args.getNonOptionArgs().size() != 1) {
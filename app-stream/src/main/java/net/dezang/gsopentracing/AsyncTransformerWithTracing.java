@@ -0,0 +1,211 @@
+package net.dezang.gsopentracing;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.log.Fields;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.GlobalTracer;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.errors.StreamsException;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.Cancellable;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.To;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of {@link TransformerWithTracing}: the value action returns a
+ * {@link CompletionStage}, so the stream thread keeps polling while up to {@code maxInFlight} records of the
+ * task are being worked on. Results are forwarded in input order, from {@link #transform} and from a wall
+ * clock punctuator, each with the headers and timestamp of its own input record.
+ * <p>
+ * The span is opened on the stream thread and finished when the stage completes. {@link #close} waits for
+ * the records still in flight and forwards them before the task commits. Kafka Streams may commit the
+ * offset of a record that is still in flight, so in-flight records are lost if the instance dies;
+ * keep {@code maxInFlight} in line with what may be reprocessed.
+ */
+@Log4j2
+class AsyncTransformerWithTracing<K, V, R> implements Transformer<K, V, KeyValue<K, R>> {
+    private static final Duration DRAIN_INTERVAL = Duration.ofMillis(10);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Tracer tracer;
+    private final String operatorName;
+    private final Function<? super V, ? extends CompletionStage<R>> valueAction;
+    private final int maxInFlight;
+    private final MeterRegistry meterRegistry;
+    private final Deque<Pending<K, R>> pending = new ArrayDeque<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private ProcessorContext context;
+    private RecordSpans spans;
+    private Gauge inFlightGauge;
+    private Cancellable drainSchedule;
+
+    AsyncTransformerWithTracing(Tracer tracer, String operatorName,
+                                Function<? super V, ? extends CompletionStage<R>> valueAction, int maxInFlight,
+                                MeterRegistry meterRegistry) {
+        this.tracer = tracer;
+        this.operatorName = operatorName;
+        this.valueAction = valueAction;
+        this.maxInFlight = maxInFlight;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.spans = new RecordSpans(tracer != null ? tracer : GlobalTracer.get(), operatorName);
+        this.inFlightGauge = Gauge.builder("stream.transform.in-flight", inFlight, AtomicInteger::get)
+                .tag("operator", operatorName)
+                .tag("task", context.taskId().toString())
+                .register(meterRegistry);
+        this.drainSchedule = context.schedule(DRAIN_INTERVAL, PunctuationType.WALL_CLOCK_TIME, timestamp -> forwardCompleted());
+    }
+
+    @Override
+    public KeyValue<K, R> transform(K key, V value) {
+        // every pending record keeps a copy of its own headers, the current ones only belong to this record
+        Headers headers = new RecordHeaders(context.headers().toArray());
+        long timestamp = context.timestamp();
+        SpanContext spanContext = spans.extract(headers);
+
+        forwardCompleted();
+        while (pending.size() >= maxInFlight) {
+            pending.peekFirst().result.exceptionally(e -> null).join();
+            forwardCompleted();
+        }
+
+        Span span = spans.start(spanContext);
+        CompletableFuture<R> result;
+        try (Scope ignored = spans.activate(span)) {
+            result = valueAction.apply(value).toCompletableFuture();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((r, error) -> {
+            if (error != null) {
+                Tags.ERROR.set(span, true);
+                span.log(Map.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, error));
+            }
+            span.finish();
+        });
+        pending.addLast(new Pending<>(key, timestamp, headers, span, result));
+        inFlight.incrementAndGet();
+        return null;
+    }
+
+    private void forwardCompleted() {
+        while (!pending.isEmpty() && pending.peekFirst().result.isDone()) {
+            forward(pending.pollFirst());
+        }
+    }
+
+    private void forward(Pending<K, R> head) {
+        inFlight.decrementAndGet();
+        R value;
+        try {
+            value = head.result.join();
+        } catch (CompletionException e) {
+            throw new StreamsException("value action of " + operatorName + " failed", e.getCause());
+        }
+        Headers forwarded = new RecordHeaders(head.headers.toArray());
+        spans.inject(head.span.context(), forwarded);
+
+        // forward() sends the current record's headers: lend them the copy and put the own ones back after
+        Headers current = context.headers();
+        Header[] own = current.toArray();
+        replace(current, forwarded.toArray());
+        try {
+            context.forward(head.key, value, To.all().withTimestamp(head.timestamp));
+        } finally {
+            replace(current, own);
+        }
+    }
+
+    private static void replace(Headers headers, Header[] replacement) {
+        for (Header header : headers.toArray()) {
+            headers.remove(header.key());
+        }
+        for (Header header : replacement) {
+            headers.add(header);
+        }
+    }
+
+    /**
+     * Forwards what is still in flight, so the offsets committed after the close cover only forwarded
+     * records. A result that does not complete within {@code CLOSE_TIMEOUT} fails the close, and with it the
+     * commit.
+     */
+    @Override
+    public void close() {
+        if (drainSchedule != null) {
+            drainSchedule.cancel();
+        }
+        try {
+            if (!pending.isEmpty()) {
+                log.info("closing {}, forwarding {} records in flight", operatorName, pending.size());
+                awaitPending();
+            }
+        } finally {
+            if (inFlightGauge != null) {
+                meterRegistry.remove(inFlightGauge);
+            }
+        }
+    }
+
+    private void awaitPending() {
+        long deadline = System.nanoTime() + CLOSE_TIMEOUT.toNanos();
+        while (!pending.isEmpty()) {
+            try {
+                pending.peekFirst().result.exceptionally(e -> null)
+                        .get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw new StreamsException(operatorName + " still had " + pending.size()
+                        + " records in flight after " + CLOSE_TIMEOUT.toSeconds() + "s");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StreamsException("interrupted closing " + operatorName, e);
+            } catch (ExecutionException e) {
+                // exceptionally() leaves nothing to fail
+            }
+            forwardCompleted();
+        }
+    }
+
+    private static final class Pending<K, R> {
+        private final K key;
+        private final long timestamp;
+        private final Headers headers;
+        private final Span span;
+        private final CompletableFuture<R> result;
+
+        private Pending(K key, long timestamp, Headers headers, Span span, CompletableFuture<R> result) {
+            this.key = key;
+            this.timestamp = timestamp;
+            this.headers = headers;
+            this.span = span;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.dezang.gsopentracing;
+
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKey;
+import org.apache.kafka.streams.kstream.ValueTransformerWithKeySupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Pass-through step that reports the current record to a {@link RecordLatencyTracker}: placed before the work
+ * as {@link Stage#RECEIVED} and after it as {@link Stage#PROCESSED}, the difference is the time the record
+ * spent in between.
+ * <p>
+ * Records forwarded by a punctuator, such as the results of {@link AsyncTransformerWithTracing}, carry no
+ * topic; they are reported under the topic last seen by this task and the task's partition.
+ */
+class RecordLatencyTransformer<K, V> implements ValueTransformerWithKey<K, V, V> {
+    enum Stage {
+        RECEIVED,
+        PROCESSED
+    }
+
+    private final RecordLatencyTracker tracker;
+    private final Stage stage;
+    private ProcessorContext context;
+    private String lastTopic;
+
+    RecordLatencyTransformer(RecordLatencyTracker tracker, Stage stage) {
+        this.tracker = tracker;
+        this.stage = stage;
+    }
+
+    static <K, V> ValueTransformerWithKeySupplier<K, V, V> supplier(RecordLatencyTracker tracker, Stage stage) {
+        return () -> new RecordLatencyTransformer<>(tracker, stage);
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public V transform(K key, V value) {
+        String topic = context.topic();
+        int partition = context.partition();
+        if (topic != null) {
+            lastTopic = topic;
+        } else if (lastTopic != null) {
+            topic = lastTopic;
+            partition = context.taskId().partition;
+        } else {
+            return value;
+        }
+        if (stage == Stage.RECEIVED) {
+            tracker.received(topic, partition, context.headers());
+        } else {
+            tracker.processed(topic, partition, context.headers());
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+    }
+}
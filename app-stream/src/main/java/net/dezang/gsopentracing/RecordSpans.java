@@ -0,0 +1,45 @@
+package net.dezang.gsopentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * Per-processor span state resolved once in {@code init}: the tracer, its scope manager and the operation
+ * name, so the per-record path only extracts the parent and starts the span.
+ */
+final class RecordSpans {
+    private final Tracer tracer;
+    private final ScopeManager scopeManager;
+    private final String operationName;
+
+    RecordSpans(Tracer tracer, String operationName) {
+        this.tracer = tracer;
+        this.scopeManager = tracer.scopeManager();
+        this.operationName = operationName;
+    }
+
+    SpanContext extract(Headers headers) {
+        return tracer.extract(KafkaHeadersCodec.FORMAT, headers);
+    }
+
+    Span start(SpanContext parent) {
+        return tracer.buildSpan(operationName).asChildOf(parent).start();
+    }
+
+    Span start(Headers headers) {
+        return start(extract(headers));
+    }
+
+    void inject(SpanContext spanContext, Headers headers) {
+        tracer.inject(spanContext, KafkaHeadersCodec.FORMAT, headers);
+    }
+
+    Scope activate(Span span) {
+        return scopeManager.activate(span);
+    }
+}
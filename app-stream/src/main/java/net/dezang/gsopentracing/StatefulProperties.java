@@ -0,0 +1,78 @@
+package net.dezang.gsopentracing;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Stateful topology settings, bound from {@code stream.stateful.*}. Only used when
+ * {@code stream.stateful.enabled=true}.
+ */
+@Data
+@ConfigurationProperties(prefix = "stream.stateful")
+class StatefulProperties {
+    private boolean enabled = false;
+
+    /**
+     * Windowed counts joined with the running totals go here.
+     */
+    private String outputTopic = "test.tracing.stream.counts";
+
+    private Duration windowSize = Duration.ofMinutes(1);
+
+    /**
+     * How long a window still accepts records that arrive out of order.
+     */
+    private Duration grace = Duration.ofSeconds(10);
+
+    /**
+     * {@code cache.max.bytes.buffering}, over all threads. Updates to the same key within a commit interval are
+     * collapsed in this cache before they reach RocksDB and the changelog; 0 sends every update through.
+     */
+    private DataSize cacheMaxBytes = DataSize.ofMegabytes(10);
+
+    /**
+     * {@code commit.interval.ms}, which is also when the record cache is flushed.
+     */
+    private Duration commitInterval = Duration.ofSeconds(30);
+
+    private final RocksDbProperties rocksdb = new RocksDbProperties();
+    private final StoreMetricsProperties storeMetrics = new StoreMetricsProperties();
+
+    @Data
+    static class RocksDbProperties {
+        /**
+         * LRU block cache shared by every store of the instance, instead of one per store.
+         */
+        private DataSize blockCacheSize = DataSize.ofMegabytes(64);
+
+        private DataSize blockSize = DataSize.ofKilobytes(16);
+
+        /**
+         * Memtable size per store (per window segment for window stores).
+         */
+        private DataSize writeBufferSize = DataSize.ofMegabytes(16);
+
+        private int maxWriteBufferNumber = 3;
+    }
+
+    @Data
+    static class StoreMetricsProperties {
+        /**
+         * Time state store calls per store and operation; when disabled the stores are not wrapped at all.
+         */
+        private boolean enabled = true;
+
+        /**
+         * One call in this many is timed, rounded up to a power of two; 1 times every call.
+         */
+        private int sampleRate = 8;
+
+        /**
+         * A timed call at least this slow is also reported as a {@code <store>.<operation>} span.
+         */
+        private Duration slowThreshold = Duration.ofMillis(20);
+    }
+}
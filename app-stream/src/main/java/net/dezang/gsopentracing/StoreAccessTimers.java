@@ -0,0 +1,145 @@
+package net.dezang.gsopentracing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentracing.References;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the calls into one state store, {@value #METER}{store, operation}, recorded for one call in
+ * {@code sampleRate}. A timed call slower than {@code slowThreshold} is also reported as a
+ * {@code <store>.<operation>} span. A slow read is a child of the active span or else of the trace in the
+ * headers of the record being processed, which puts it into the trace of the record that caused it, also for
+ * DSL aggregations and joins that no traced processor wraps.
+ * <p>
+ * Writes and flushes are not caused by the record being processed. Under the record cache a store is written
+ * when the cache evicts or flushes an entry, and Kafka Streams then sets the record context to the entry's
+ * record, which may be long done; a slow write therefore ignores the active span and follows from that
+ * record. A flush runs on commit, when the record context is just the last record processed, so it starts a
+ * trace of its own.
+ * <p>
+ * A store instance belongs to one stream task and is called from its stream thread only, hence the plain
+ * call counter. Calls that are not sampled cost an increment and a mask; nothing allocates either way unless
+ * a slow call is reported.
+ */
+final class StoreAccessTimers {
+    static final String METER = "kafka.streams.store.latency";
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    enum Operation {
+        GET(Cause.CURRENT_RECORD),
+        PUT(Cause.CACHED_RECORD),
+        PUT_ALL(Cause.CACHED_RECORD),
+        DELETE(Cause.CACHED_RECORD),
+        RANGE(Cause.CURRENT_RECORD),
+        FETCH(Cause.CURRENT_RECORD),
+        FLUSH(Cause.NONE);
+
+        private final Cause cause;
+
+        Operation(Cause cause) {
+            this.cause = cause;
+        }
+    }
+
+    private enum Cause {
+        // child of the active span or of the record being processed
+        CURRENT_RECORD,
+        // follows from the record in the record context, the one whose cache entry is written
+        CACHED_RECORD,
+        // starts a trace
+        NONE
+    }
+
+    private final String storeName;
+    private final Tracer tracer;
+    private final Timer[] timers = new Timer[Operation.values().length];
+    private final String[] spanNames = new String[Operation.values().length];
+    private final int sampleMask;
+    private final long slowThresholdNanos;
+    private ProcessorContext context;
+    private int calls;
+
+    StoreAccessTimers(String storeName, MeterRegistry registry, Tracer tracer, int sampleRate,
+                      long slowThresholdNanos) {
+        this.storeName = storeName;
+        this.tracer = tracer;
+        for (Operation operation : Operation.values()) {
+            String name = operation.name().toLowerCase(Locale.ROOT);
+            timers[operation.ordinal()] = Timer.builder(METER)
+                    .tag("store", storeName)
+                    .tag("operation", name)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            spanNames[operation.ordinal()] = storeName + "." + name;
+        }
+        int sampleSize = 1;
+        while (sampleSize < sampleRate) {
+            sampleSize <<= 1;
+        }
+        this.sampleMask = sampleSize - 1;
+        this.slowThresholdNanos = slowThresholdNanos;
+    }
+
+    void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record}, or 0 when this call is not timed
+     */
+    long start() {
+        return (calls++ & sampleMask) == 0 ? System.nanoTime() : 0;
+    }
+
+    void record(Operation operation, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        timers[operation.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos >= slowThresholdNanos) {
+            long endMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            Tracer.SpanBuilder span = tracer.buildSpan(spanNames[operation.ordinal()])
+                    .withStartTimestamp(endMicros - TimeUnit.NANOSECONDS.toMicros(nanos))
+                    .withTag("store", storeName);
+            withCause(span, operation.cause)
+                    .start()
+                    .finish(endMicros);
+        }
+    }
+
+    private Tracer.SpanBuilder withCause(Tracer.SpanBuilder span, Cause cause) {
+        switch (cause) {
+            case CURRENT_RECORD:
+                return tracer.activeSpan() == null ? span.asChildOf(recordSpanContext()) : span;
+            case CACHED_RECORD:
+                SpanContext record = recordSpanContext();
+                span.ignoreActiveSpan();
+                return record != null ? span.addReference(References.FOLLOWS_FROM, record) : span;
+            default:
+                return span.ignoreActiveSpan();
+        }
+    }
+
+    private SpanContext recordSpanContext() {
+        if (context == null) {
+            return null;
+        }
+        try {
+            Headers headers = context.headers();
+            return headers != null ? tracer.extract(KafkaHeadersCodec.FORMAT, headers) : null;
+        } catch (IllegalStateException e) {
+            // commits and punctuations may run without a record context
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.dezang.gsopentracing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentracing.Tracer;
+import org.apache.kafka.streams.state.KeyValueBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+
+/**
+ * Wraps the store suppliers handed to {@code Materialized.as} with {@link TimedKeyValueStore} and
+ * {@link TimedWindowStore}, or returns them untouched when store metrics are disabled.
+ */
+class StoreInstrumentation {
+    private final MeterRegistry registry;
+    private final Tracer tracer;
+    private final StatefulProperties.StoreMetricsProperties properties;
+
+    StoreInstrumentation(MeterRegistry registry, Tracer tracer, StatefulProperties.StoreMetricsProperties properties) {
+        this.registry = registry;
+        this.tracer = tracer;
+        this.properties = properties;
+    }
+
+    KeyValueBytesStoreSupplier keyValue(KeyValueBytesStoreSupplier supplier) {
+        return properties.isEnabled() ? TimedKeyValueStore.supplier(supplier, this) : supplier;
+    }
+
+    WindowBytesStoreSupplier window(WindowBytesStoreSupplier supplier) {
+        return properties.isEnabled() ? TimedWindowStore.supplier(supplier, this) : supplier;
+    }
+
+    /**
+     * One per store instance, i.e. per store and task; instances of the same store share their timers.
+     */
+    StoreAccessTimers timers(String storeName) {
+        return new StoreAccessTimers(storeName, registry, tracer, properties.getSampleRate(),
+                properties.getSlowThreshold().toNanos());
+    }
+}
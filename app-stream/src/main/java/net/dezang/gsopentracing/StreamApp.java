@@ -1,38 +1,48 @@
 package net.dezang.gsopentracing;
 
-import io.jaegertracing.internal.samplers.ConstSampler;
-import io.opentracing.Scope;
-import io.opentracing.Span;
-import io.opentracing.SpanContext;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.opentracing.Tracer;
-import io.opentracing.contrib.kafka.TracingKafkaUtils;
 import io.opentracing.contrib.kafka.streams.TracingKafkaClientSupplier;
 import io.opentracing.util.GlobalTracer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.apache.kafka.common.header.Headers;
+import net.dezang.gsopentracing.tracing.concurrent.TracedExecutorService;
+import net.dezang.gsopentracing.tracing.concurrent.VirtualThreads;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaClientSupplier;
 import org.apache.kafka.streams.KafkaStreams;
-import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Grouped;
+import org.apache.kafka.streams.kstream.Joined;
 import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.KTable;
+import org.apache.kafka.streams.kstream.Materialized;
 import org.apache.kafka.streams.kstream.Produced;
-import org.apache.kafka.streams.kstream.Transformer;
-import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.kstream.TimeWindows;
+import org.apache.kafka.streams.state.Stores;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.Properties;
-import java.util.function.Function;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.UnaryOperator;
 
 @SpringBootApplication
@@ -43,120 +53,150 @@ public class StreamApp {
 
     @Configuration
     @RequiredArgsConstructor
+    @EnableConfigurationProperties(StatefulProperties.class)
     static class Config {
-        @Value("${spring.application.name}")
-        private String applicationName;
+        private final Tracer tracer;
 
         @Bean
-        Tracer tracer() {
-            io.jaegertracing.Configuration.SamplerConfiguration samplerConfig = io.jaegertracing.Configuration.SamplerConfiguration.fromEnv().withType(ConstSampler.TYPE).withParam(1);
-            io.jaegertracing.Configuration.SenderConfiguration senderConfig = io.jaegertracing.Configuration.SenderConfiguration.fromEnv()
-                    .withAgentHost("localhost")
-                    .withAgentPort(6831);
-            io.jaegertracing.Configuration.ReporterConfiguration reporterConfig = io.jaegertracing.Configuration.ReporterConfiguration.fromEnv().withLogSpans(true).withSender(senderConfig);
-            io.jaegertracing.Configuration config = new io.jaegertracing.Configuration(applicationName)
-                    .withSampler(samplerConfig)
-                    .withReporter(reporterConfig);
-            return config.getTracer();
+        @ConditionalOnProperty(name = "stream.async.enabled", havingValue = "true")
+        ExecutorService streamWorkExecutor(@Value("${stream.async.threads:16}") int threads,
+                                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+            // stream.async.max-in-flight bounds the virtual threads per task
+            ExecutorService executor = VirtualThreads.enabled(virtualThreads)
+                    ? VirtualThreads.newThreadPerTaskExecutor("stream-work-")
+                    : Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("stream-work-%d").build());
+            // the work span stays active where the work runs
+            return new TracedExecutorService(tracer, executor);
         }
 
         @Bean
         KafkaClientSupplier kafkaClientSupplier() {
-            return new TracingKafkaClientSupplier(tracer());
+            return new TracingKafkaClientSupplier(tracer);
         }
 
         @PostConstruct
         public void registerToGlobalTracer() {
             if (!GlobalTracer.isRegistered()) {
-                GlobalTracer.registerIfAbsent(tracer());
+                GlobalTracer.registerIfAbsent(tracer);
             }
         }
     }
 
+    /**
+     * Starts the topology once the context is refreshed rather than from {@code @PostConstruct}: a lifecycle
+     * bean is created and started even under the lazy initialization of the {@code fast-startup} profile, and
+     * the streams are closed with the context, before the tracer, instead of from a shutdown hook of their own.
+     */
     @Log4j2
     @Component
     @RequiredArgsConstructor
-    static class SimpleStreamer {
+    static class SimpleStreamer implements SmartLifecycle {
         private final Tracer tracer;
         private final KafkaClientSupplier kafkaClientSupplier;
         private final KafkaProperties kafkaProperties;
+        private final MeterRegistry meterRegistry;
+        private final RecordLatencyTracker latencyTracker;
+        private final ObjectProvider<ExecutorService> streamWorkExecutor;
+        private final StatefulProperties stateful;
+        @Value("${stream.async.enabled:false}")
+        private boolean asyncEnabled;
+        @Value("${stream.async.max-in-flight:64}")
+        private int asyncMaxInFlight;
+        private KafkaStreams streams;
 
-
-        @PostConstruct
-        public void runStream() {
+        @Override
+        public void start() {
             Properties streamProperties = new Properties();
             streamProperties.putAll(kafkaProperties.buildStreamsProperties());
+            if (stateful.isEnabled()) {
+                streamProperties.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG,
+                        stateful.getCacheMaxBytes().toBytes());
+                streamProperties.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, stateful.getCommitInterval().toMillis());
+                streamProperties.put(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG, TunedRocksDBConfigSetter.class);
+                streamProperties.putAll(TunedRocksDBConfigSetter.configs(stateful.getRocksdb()));
+            }
             StreamsBuilder streamsBuilder = new StreamsBuilder();
 
             Serde<String> stringSerde = Serdes.String();
             KStream<String, String> stream = streamsBuilder.stream(
-                    "test.tracing", Consumed.with(stringSerde, stringSerde));
-
-            stream.transform(
-                    () -> new TransformerWithTracing<String, String>("work", new WorkFunction()))
+                    "test.tracing", Consumed.with(stringSerde, stringSerde))
+                    .transformValues(RecordLatencyTransformer.supplier(latencyTracker, RecordLatencyTransformer.Stage.RECEIVED));
+            if (stateful.isEnabled()) {
+                addStatefulTopology(stream, stringSerde);
+            }
+            KStream<String, String> worked;
+
+            if (asyncEnabled) {
+                WorkFunction workFunction = new WorkFunction();
+                ExecutorService executor = streamWorkExecutor.getObject();
+                worked = stream.transform(
+                        () -> new AsyncTransformerWithTracing<String, String, String>(tracer, "work",
+                                value -> CompletableFuture.supplyAsync(() -> workFunction.apply(value), executor),
+                                asyncMaxInFlight, meterRegistry));
+            } else {
+                worked = stream.transform(TransformerWithTracing.<String, String, String>supplier(tracer, "work", new WorkFunction()));
+            }
+            worked.transformValues(RecordLatencyTransformer.supplier(latencyTracker, RecordLatencyTransformer.Stage.PROCESSED))
                     .to("test.tracing.stream", Produced.with(stringSerde, stringSerde));
 
-            KafkaStreams streams = new KafkaStreams(streamsBuilder.build(), streamProperties, kafkaClientSupplier);
+            streams = new KafkaStreams(streamsBuilder.build(), streamProperties, kafkaClientSupplier);
             streams.start();
-            Runtime.getRuntime().addShutdownHook(new Thread(streams::close));
         }
-    }
-
-    static class WorkFunction implements UnaryOperator<String> {
 
         @Override
-        public String apply(String s) {
-            try {
-                Thread.sleep(300);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            return s + "worked";
+        public void stop() {
+            streams.close();
+            streams = null;
         }
 
         @Override
-        public <V> Function<V, String> compose(Function<? super V, ? extends String> before) {
-            return null;
+        public boolean isRunning() {
+            return streams != null;
         }
 
-        @Override
-        public <V> Function<String, V> andThen(Function<? super String, ? extends V> after) {
-            return null;
+        /**
+         * Running count per key in {@code work-totals} (a KTable), every record joined with the total of its key,
+         * and the joined records counted per key and window in {@code work-counts}, written to
+         * {@code stream.stateful.output-topic}. It branches off before the {@code work} transform, whose possible
+         * key change would force a repartition topic in front of the aggregations. Records without a key cannot
+         * be grouped and are left out.
+         */
+        private void addStatefulTopology(KStream<String, String> received, Serde<String> stringSerde) {
+            StoreInstrumentation stores = new StoreInstrumentation(meterRegistry, tracer, stateful.getStoreMetrics());
+            Duration windowSize = stateful.getWindowSize();
+            Duration retention = windowSize.plus(stateful.getGrace());
+
+            KStream<String, String> keyed = received.filter((key, value) -> key != null);
+            KTable<String, Long> totals = keyed
+                    .groupByKey(Grouped.with(stringSerde, stringSerde))
+                    .count(Materialized.<String, Long>as(stores.keyValue(
+                            Stores.persistentTimestampedKeyValueStore("work-totals")))
+                            .withKeySerde(stringSerde)
+                            .withValueSerde(Serdes.Long()));
+            keyed.join(totals, (value, total) -> value + " #" + total,
+                    Joined.with(stringSerde, stringSerde, Serdes.Long()))
+                    .groupByKey(Grouped.with(stringSerde, stringSerde))
+                    .windowedBy(TimeWindows.of(windowSize).grace(stateful.getGrace()))
+                    .count(Materialized.<String, Long>as(stores.window(
+                            Stores.persistentTimestampedWindowStore("work-counts", retention, windowSize, false)))
+                            .withKeySerde(stringSerde)
+                            .withValueSerde(Serdes.Long()))
+                    .toStream((windowed, count) -> windowed.key() + "@" + windowed.window().startTime())
+                    .mapValues(String::valueOf)
+                    .to(stateful.getOutputTopic(), Produced.with(stringSerde, stringSerde));
         }
     }
 
-    @Log4j2
-    static class TransformerWithTracing<V, R> implements Transformer<String, V, KeyValue<String, R>> {
-        private ProcessorContext context;
-        final Function valueAction;
-        final String operatorName;
-
-        public TransformerWithTracing(String operatorName, Function valueAction) {
-            this.operatorName = operatorName;
-            this.valueAction = valueAction;
-        }
-
-        @Override
-        public void init(ProcessorContext context) {
-            this.context = context;
-        }
+    static class WorkFunction implements UnaryOperator<String> {
 
         @Override
-        public KeyValue<String, R> transform(String key, V value) {
-            Tracer tracer = GlobalTracer.get();
-            Headers headers = context.headers();
-            SpanContext spanContext = TracingKafkaUtils.extractSpanContext(headers, tracer);
-            Span span = tracer.buildSpan(operatorName).asChildOf(spanContext).start();
-            try (Scope ignored = tracer.scopeManager().activate(span)) {
-                return KeyValue.pair(key, (R) valueAction.apply(value));
-            } finally {
-                span.finish();
+        public String apply(String s) {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-        }
-
-        @Override
-        public void close() {
-
+            return s + "worked";
         }
     }
 }
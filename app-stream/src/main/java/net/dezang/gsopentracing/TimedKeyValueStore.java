@@ -0,0 +1,150 @@
+package net.dezang.gsopentracing;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueBytesStoreSupplier;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.TimestampedBytesStore;
+
+import java.util.List;
+
+/**
+ * Times the calls into the bytes store under the record cache, i.e. the RocksDB reads and writes themselves,
+ * with {@link StoreAccessTimers}. {@code range} and {@code all} are timed until the iterator is open,
+ * {@code flush} on every call.
+ */
+class TimedKeyValueStore implements KeyValueStore<Bytes, byte[]> {
+    private final KeyValueStore<Bytes, byte[]> delegate;
+    private final StoreAccessTimers timers;
+
+    private TimedKeyValueStore(KeyValueStore<Bytes, byte[]> delegate, StoreAccessTimers timers) {
+        this.delegate = delegate;
+        this.timers = timers;
+    }
+
+    static KeyValueBytesStoreSupplier supplier(KeyValueBytesStoreSupplier supplier,
+                                               StoreInstrumentation instrumentation) {
+        return new KeyValueBytesStoreSupplier() {
+            @Override
+            public String name() {
+                return supplier.name();
+            }
+
+            @Override
+            public KeyValueStore<Bytes, byte[]> get() {
+                KeyValueStore<Bytes, byte[]> store = supplier.get();
+                StoreAccessTimers timers = instrumentation.timers(supplier.name());
+                // timestamped stores must stay recognizable, or the DSL puts a format adapter in between
+                return store instanceof TimestampedBytesStore
+                        ? new Timestamped(store, timers) : new TimedKeyValueStore(store, timers);
+            }
+
+            @Override
+            public String metricsScope() {
+                return supplier.metricsScope();
+            }
+        };
+    }
+
+    @Override
+    public byte[] get(Bytes key) {
+        long start = timers.start();
+        byte[] value = delegate.get(key);
+        timers.record(StoreAccessTimers.Operation.GET, start);
+        return value;
+    }
+
+    @Override
+    public void put(Bytes key, byte[] value) {
+        long start = timers.start();
+        delegate.put(key, value);
+        timers.record(StoreAccessTimers.Operation.PUT, start);
+    }
+
+    @Override
+    public byte[] putIfAbsent(Bytes key, byte[] value) {
+        long start = timers.start();
+        byte[] previous = delegate.putIfAbsent(key, value);
+        timers.record(StoreAccessTimers.Operation.PUT, start);
+        return previous;
+    }
+
+    @Override
+    public void putAll(List<KeyValue<Bytes, byte[]>> entries) {
+        long start = timers.start();
+        delegate.putAll(entries);
+        timers.record(StoreAccessTimers.Operation.PUT_ALL, start);
+    }
+
+    @Override
+    public byte[] delete(Bytes key) {
+        long start = timers.start();
+        byte[] previous = delegate.delete(key);
+        timers.record(StoreAccessTimers.Operation.DELETE, start);
+        return previous;
+    }
+
+    @Override
+    public KeyValueIterator<Bytes, byte[]> range(Bytes from, Bytes to) {
+        long start = timers.start();
+        KeyValueIterator<Bytes, byte[]> iterator = delegate.range(from, to);
+        timers.record(StoreAccessTimers.Operation.RANGE, start);
+        return iterator;
+    }
+
+    @Override
+    public KeyValueIterator<Bytes, byte[]> all() {
+        long start = timers.start();
+        KeyValueIterator<Bytes, byte[]> iterator = delegate.all();
+        timers.record(StoreAccessTimers.Operation.RANGE, start);
+        return iterator;
+    }
+
+    @Override
+    public long approximateNumEntries() {
+        return delegate.approximateNumEntries();
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        timers.init(context);
+        delegate.init(context, root);
+    }
+
+    @Override
+    public void flush() {
+        // rare and the most expensive call, so always timed
+        long start = System.nanoTime();
+        delegate.flush();
+        timers.record(StoreAccessTimers.Operation.FLUSH, start);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean persistent() {
+        return delegate.persistent();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    private static final class Timestamped extends TimedKeyValueStore implements TimestampedBytesStore {
+        private Timestamped(KeyValueStore<Bytes, byte[]> delegate, StoreAccessTimers timers) {
+            super(delegate, timers);
+        }
+    }
+}
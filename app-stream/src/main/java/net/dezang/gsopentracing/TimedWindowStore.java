@@ -0,0 +1,172 @@
+package net.dezang.gsopentracing;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.TimestampedBytesStore;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * {@link TimedKeyValueStore} for window stores. Fetches over a time range are timed until the iterator is
+ * open; the {@code Instant} variants end up in the timed {@code long} ones.
+ */
+class TimedWindowStore implements WindowStore<Bytes, byte[]> {
+    private final WindowStore<Bytes, byte[]> delegate;
+    private final StoreAccessTimers timers;
+
+    private TimedWindowStore(WindowStore<Bytes, byte[]> delegate, StoreAccessTimers timers) {
+        this.delegate = delegate;
+        this.timers = timers;
+    }
+
+    static WindowBytesStoreSupplier supplier(WindowBytesStoreSupplier supplier,
+                                             StoreInstrumentation instrumentation) {
+        return new WindowBytesStoreSupplier() {
+            @Override
+            public String name() {
+                return supplier.name();
+            }
+
+            @Override
+            public WindowStore<Bytes, byte[]> get() {
+                WindowStore<Bytes, byte[]> store = supplier.get();
+                StoreAccessTimers timers = instrumentation.timers(supplier.name());
+                return store instanceof TimestampedBytesStore
+                        ? new Timestamped(store, timers) : new TimedWindowStore(store, timers);
+            }
+
+            @Override
+            public String metricsScope() {
+                return supplier.metricsScope();
+            }
+
+            /**
+             * Deprecated in favour of {@link #segmentIntervalMs()}; derived the way the RocksDB supplier does.
+             */
+            @Deprecated
+            public int segments() {
+                return (int) (supplier.retentionPeriod() / supplier.segmentIntervalMs()) + 1;
+            }
+
+            @Override
+            public long segmentIntervalMs() {
+                return supplier.segmentIntervalMs();
+            }
+
+            @Override
+            public long windowSize() {
+                return supplier.windowSize();
+            }
+
+            @Override
+            public boolean retainDuplicates() {
+                return supplier.retainDuplicates();
+            }
+
+            @Override
+            public long retentionPeriod() {
+                return supplier.retentionPeriod();
+            }
+        };
+    }
+
+    @Override
+    @Deprecated
+    @SuppressWarnings("deprecation")
+    public void put(Bytes key, byte[] value) {
+        long start = timers.start();
+        delegate.put(key, value);
+        timers.record(StoreAccessTimers.Operation.PUT, start);
+    }
+
+    @Override
+    public void put(Bytes key, byte[] value, long windowStartTimestamp) {
+        long start = timers.start();
+        delegate.put(key, value, windowStartTimestamp);
+        timers.record(StoreAccessTimers.Operation.PUT, start);
+    }
+
+    @Override
+    public byte[] fetch(Bytes key, long time) {
+        long start = timers.start();
+        byte[] value = delegate.fetch(key, time);
+        timers.record(StoreAccessTimers.Operation.GET, start);
+        return value;
+    }
+
+    @Override
+    public WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+        long start = timers.start();
+        WindowStoreIterator<byte[]> iterator = delegate.fetch(key, timeFrom, timeTo);
+        timers.record(StoreAccessTimers.Operation.FETCH, start);
+        return iterator;
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom, long timeTo) {
+        long start = timers.start();
+        KeyValueIterator<Windowed<Bytes>, byte[]> iterator = delegate.fetch(from, to, timeFrom, timeTo);
+        timers.record(StoreAccessTimers.Operation.FETCH, start);
+        return iterator;
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+        long start = timers.start();
+        KeyValueIterator<Windowed<Bytes>, byte[]> iterator = delegate.fetchAll(timeFrom, timeTo);
+        timers.record(StoreAccessTimers.Operation.FETCH, start);
+        return iterator;
+    }
+
+    @Override
+    public KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+        long start = timers.start();
+        KeyValueIterator<Windowed<Bytes>, byte[]> iterator = delegate.all();
+        timers.record(StoreAccessTimers.Operation.RANGE, start);
+        return iterator;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        timers.init(context);
+        delegate.init(context, root);
+    }
+
+    @Override
+    public void flush() {
+        // rare and the most expensive call, so always timed
+        long start = System.nanoTime();
+        delegate.flush();
+        timers.record(StoreAccessTimers.Operation.FLUSH, start);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean persistent() {
+        return delegate.persistent();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    private static final class Timestamped extends TimedWindowStore implements TimestampedBytesStore {
+        private Timestamped(WindowStore<Bytes, byte[]> delegate, StoreAccessTimers timers) {
+            super(delegate, timers);
+        }
+    }
+}
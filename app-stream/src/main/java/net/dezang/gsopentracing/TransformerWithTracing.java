@@ -0,0 +1,59 @@
+package net.dezang.gsopentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.kstream.TransformerSupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.util.function.Function;
+
+/**
+ * Applies a value action inside a span that continues the trace carried in the record headers.
+ * The tracer is resolved once in {@link #init}; when none is given, {@link GlobalTracer} is used.
+ */
+public class TransformerWithTracing<K, V, R> implements Transformer<K, V, KeyValue<K, R>> {
+    private final Tracer tracer;
+    private final String operatorName;
+    private final Function<? super V, ? extends R> valueAction;
+    private ProcessorContext context;
+    private RecordSpans spans;
+
+    public TransformerWithTracing(String operatorName, Function<? super V, ? extends R> valueAction) {
+        this(null, operatorName, valueAction);
+    }
+
+    public TransformerWithTracing(Tracer tracer, String operatorName, Function<? super V, ? extends R> valueAction) {
+        this.tracer = tracer;
+        this.operatorName = operatorName;
+        this.valueAction = valueAction;
+    }
+
+    public static <K, V, R> TransformerSupplier<K, V, KeyValue<K, R>> supplier(
+            Tracer tracer, String operatorName, Function<? super V, ? extends R> valueAction) {
+        return () -> new TransformerWithTracing<>(tracer, operatorName, valueAction);
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.spans = new RecordSpans(tracer != null ? tracer : GlobalTracer.get(), operatorName);
+    }
+
+    @Override
+    public KeyValue<K, R> transform(K key, V value) {
+        Span span = spans.start(context.headers());
+        try (Scope ignored = spans.activate(span)) {
+            return KeyValue.pair(key, valueAction.apply(value));
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,65 @@
+package net.dezang.gsopentracing;
+
+import org.apache.kafka.streams.state.RocksDBConfigSetter;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+
+import java.util.Map;
+
+/**
+ * {@code rocksdb.config.setter} applying {@link StatefulProperties.RocksDbProperties}. Kafka Streams creates the
+ * setter itself, so the values travel in the streams configuration under the keys of {@link #configs}.
+ * <p>
+ * All stores of the instance share one LRU block cache, sized by the first store that opens; it lives as long
+ * as the JVM.
+ */
+public class TunedRocksDBConfigSetter implements RocksDBConfigSetter {
+    static final String BLOCK_CACHE_SIZE = "stream.stateful.rocksdb.block-cache-size";
+    static final String BLOCK_SIZE = "stream.stateful.rocksdb.block-size";
+    static final String WRITE_BUFFER_SIZE = "stream.stateful.rocksdb.write-buffer-size";
+    static final String MAX_WRITE_BUFFER_NUMBER = "stream.stateful.rocksdb.max-write-buffer-number";
+
+    private static Cache blockCache;
+
+    static Map<String, Object> configs(StatefulProperties.RocksDbProperties properties) {
+        return Map.of(
+                BLOCK_CACHE_SIZE, properties.getBlockCacheSize().toBytes(),
+                BLOCK_SIZE, properties.getBlockSize().toBytes(),
+                WRITE_BUFFER_SIZE, properties.getWriteBufferSize().toBytes(),
+                MAX_WRITE_BUFFER_NUMBER, properties.getMaxWriteBufferNumber());
+    }
+
+    private static synchronized Cache blockCache(long size) {
+        if (blockCache == null) {
+            blockCache = new LRUCache(size);
+        }
+        return blockCache;
+    }
+
+    @Override
+    public void setConfig(String storeName, Options options, Map<String, Object> configs) {
+        BlockBasedTableConfig tableConfig = (BlockBasedTableConfig) options.tableFormatConfig();
+        tableConfig.setBlockCache(blockCache(longValue(configs, BLOCK_CACHE_SIZE)));
+        tableConfig.setBlockSize(longValue(configs, BLOCK_SIZE));
+        // index and filter blocks count against the shared cache instead of growing off-heap without bound
+        tableConfig.setCacheIndexAndFilterBlocks(true);
+        options.setTableFormatConfig(tableConfig);
+        options.setWriteBufferSize(longValue(configs, WRITE_BUFFER_SIZE));
+        options.setMaxWriteBufferNumber((int) longValue(configs, MAX_WRITE_BUFFER_NUMBER));
+    }
+
+    @Override
+    public void close(String storeName, Options options) {
+        // the shared block cache outlives the store
+    }
+
+    private static long longValue(Map<String, Object> configs, String key) {
+        Object value = configs.get(key);
+        if (value == null) {
+            throw new IllegalStateException(key + " is missing from the streams configuration");
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+}
@@ -0,0 +1,54 @@
+package net.dezang.gsopentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import org.apache.kafka.streams.kstream.ValueTransformer;
+import org.apache.kafka.streams.kstream.ValueTransformerSupplier;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.util.function.Function;
+
+/**
+ * {@link ValueTransformer} flavour of {@link TransformerWithTracing}, for {@code transformValues} chains that
+ * keep the key and so do not force a repartition.
+ */
+public class ValueTransformerWithTracing<V, R> implements ValueTransformer<V, R> {
+    private final Tracer tracer;
+    private final String operatorName;
+    private final Function<? super V, ? extends R> valueAction;
+    private ProcessorContext context;
+    private RecordSpans spans;
+
+    public ValueTransformerWithTracing(Tracer tracer, String operatorName, Function<? super V, ? extends R> valueAction) {
+        this.tracer = tracer;
+        this.operatorName = operatorName;
+        this.valueAction = valueAction;
+    }
+
+    public static <V, R> ValueTransformerSupplier<V, R> supplier(
+            Tracer tracer, String operatorName, Function<? super V, ? extends R> valueAction) {
+        return () -> new ValueTransformerWithTracing<>(tracer, operatorName, valueAction);
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.spans = new RecordSpans(tracer != null ? tracer : GlobalTracer.get(), operatorName);
+    }
+
+    @Override
+    public R transform(V value) {
+        Span span = spans.start(context.headers());
+        try (Scope ignored = spans.activate(span)) {
+            return valueAction.apply(value);
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,264 @@
+package net.dezang.gsopentracing.benchmarks;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.contrib.kafka.TracingKafkaUtils;
+import io.opentracing.tag.Tags;
+import net.dezang.gsopentracing.tracing.reactor.ReactorTracing;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+import reactor.kafka.sender.SenderRecord;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traced producer to consumer round trips through one embedded broker: {@code blocking} as app-rest-producer
+ * and app-consumer do it ({@code KafkaTemplate}, a listener container with one thread per partition and a
+ * sleeping save), {@code reactive} as app-reactive does ({@code KafkaSender}, {@code KafkaReceiver} with
+ * bounded {@code flatMapSequential} and a timer as save).
+ * <p>
+ * Every invocation sends {@value #BATCH} records and waits until all of them are consumed, so the score is
+ * records per second. The end-to-end latency percentiles of the measured iterations are printed per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(KafkaPipelineBenchmarks.BATCH)
+public class KafkaPipelineBenchmarks {
+    static final int BATCH = 64;
+    private static final String TOPIC = "benchmark.pipeline";
+    private static final int PARTITIONS = 4;
+
+    @State(org.openjdk.jmh.annotations.Scope.Benchmark)
+    public static class PipelineState {
+        @Param({"blocking", "reactive"})
+        public String pipeline;
+
+        /**
+         * Stand-in for {@code saveToDb}, which sleeps 250ms in the apps.
+         */
+        @Param({"5"})
+        public long saveMillis;
+
+        /**
+         * {@code reactive.consumer.concurrency}; the blocking consumer has one thread per partition.
+         */
+        @Param({"256"})
+        public int concurrency;
+
+        private final Map<String, CountDownLatch> batches = new ConcurrentHashMap<>();
+        private final AtomicLong batchIds = new AtomicLong();
+        private final Recorder latency = new Recorder(3);
+        private final Histogram measured = new Histogram(3);
+        private EmbeddedKafkaBroker broker;
+        private JaegerTracer tracer;
+        private ReactorTracing reactorTracing;
+        private DefaultKafkaProducerFactory<String, String> producerFactory;
+        private KafkaTemplate<String, String> kafkaTemplate;
+        private ConcurrentMessageListenerContainer<String, String> container;
+        private KafkaSender<String, String> kafkaSender;
+        private Disposable receiver;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            broker = new EmbeddedKafkaBroker(1, false, PARTITIONS, TOPIC);
+            broker.afterPropertiesSet();
+            tracer = new JaegerTracer.Builder("benchmarks")
+                    .withSampler(new ConstSampler(true))
+                    .withReporter(new NoopReporter())
+                    .build();
+            reactorTracing = new ReactorTracing(tracer);
+
+            Map<String, Object> producerProperties = Map.of(
+                    ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                    ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                    ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+            Map<String, Object> consumerProperties = Map.of(
+                    ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                    ConsumerConfig.GROUP_ID_CONFIG, "benchmark-" + pipeline,
+                    ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                    ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                    ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+            if ("reactive".equals(pipeline)) {
+                startReactive(producerProperties, consumerProperties);
+            } else {
+                startBlocking(producerProperties, consumerProperties);
+            }
+        }
+
+        private void startBlocking(Map<String, Object> producerProperties, Map<String, Object> consumerProperties) {
+            producerFactory = new DefaultKafkaProducerFactory<>(producerProperties);
+            kafkaTemplate = new KafkaTemplate<>(producerFactory);
+            ContainerProperties containerProperties = new ContainerProperties(TOPIC);
+            containerProperties.setMessageListener((MessageListener<String, String>) record -> {
+                SpanContext parent = TracingKafkaUtils.extractSpanContext(record.headers(), tracer);
+                Span span = tracer.buildSpan("consumed")
+                        .asChildOf(parent)
+                        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                        .start();
+                try (Scope ignored = tracer.scopeManager().activate(span)) {
+                    Span save = tracer.buildSpan("saveToDb").start();
+                    try (Scope ignoredSave = tracer.scopeManager().activate(save)) {
+                        Thread.sleep(saveMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        save.finish();
+                    }
+                } finally {
+                    span.finish();
+                }
+                processed(record.key(), record.value());
+            });
+            container = new ConcurrentMessageListenerContainer<>(
+                    new DefaultKafkaConsumerFactory<>(consumerProperties), containerProperties);
+            container.setConcurrency(PARTITIONS);
+            container.start();
+            ContainerTestUtils.waitForAssignment(container, PARTITIONS);
+        }
+
+        private void startReactive(Map<String, Object> producerProperties, Map<String, Object> consumerProperties)
+                throws InterruptedException {
+            kafkaSender = KafkaSender.create(SenderOptions.<String, String>create(producerProperties));
+            CountDownLatch assigned = new CountDownLatch(1);
+            ReceiverOptions<String, String> receiverOptions = ReceiverOptions.<String, String>create(consumerProperties)
+                    .commitBatchSize(500)
+                    .commitInterval(Duration.ofSeconds(1))
+                    .addAssignListener(partitions -> assigned.countDown())
+                    .subscription(List.of(TOPIC));
+            receiver = KafkaReceiver.create(receiverOptions).receive()
+                    .flatMapSequential(record -> {
+                        SpanContext parent = TracingKafkaUtils.extractSpanContext(record.headers(), tracer);
+                        return reactorTracing.traced("consumed",
+                                builder -> builder.asChildOf(parent)
+                                        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT),
+                                span -> reactorTracing.traced("saveToDb", builder -> builder,
+                                        save -> Mono.delay(Duration.ofMillis(saveMillis)).then()))
+                                .thenReturn(record);
+                    }, concurrency)
+                    .doOnNext(record -> {
+                        processed(record.key(), record.value());
+                        record.receiverOffset().acknowledge();
+                    })
+                    .subscribe();
+            if (!assigned.await(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("no partitions assigned within 30s");
+            }
+        }
+
+        void send(String batchId) {
+            if (kafkaSender != null) {
+                Flux.range(0, BATCH)
+                        .flatMap(i -> reactorTracing.traced("send",
+                                builder -> builder.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_PRODUCER),
+                                span -> {
+                                    ProducerRecord<String, String> record = record(batchId, i);
+                                    TracingKafkaUtils.inject(span.context(), record.headers(), tracer);
+                                    return kafkaSender.send(Mono.just(SenderRecord.create(record, null))).then();
+                                }))
+                        .blockLast();
+                return;
+            }
+            for (int i = 0; i < BATCH; i++) {
+                ProducerRecord<String, String> record = record(batchId, i);
+                Span span = TracingKafkaUtils.buildAndInjectSpan(record, tracer);
+                kafkaTemplate.send(record);
+                span.finish();
+            }
+        }
+
+        private static ProducerRecord<String, String> record(String batchId, int i) {
+            return new ProducerRecord<>(TOPIC, batchId + ":" + i, Long.toString(System.nanoTime()));
+        }
+
+        private void processed(String key, String sentNanos) {
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - Long.parseLong(sentNanos)));
+            CountDownLatch batch = batches.get(key.substring(0, key.indexOf(':')));
+            if (batch != null) {
+                batch.countDown();
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void collectLatency(IterationParams iteration) {
+            Histogram interval = latency.getIntervalHistogram();
+            if (iteration.getType() == IterationType.MEASUREMENT) {
+                measured.add(interval);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.out.printf("%n%s end-to-end latency ms: p50=%.1f p99=%.1f p999=%.1f max=%.1f (%d records)%n",
+                    pipeline, measured.getValueAtPercentile(50) / 1000.0, measured.getValueAtPercentile(99) / 1000.0,
+                    measured.getValueAtPercentile(99.9) / 1000.0, measured.getMaxValue() / 1000.0,
+                    measured.getTotalCount());
+            if (receiver != null) {
+                receiver.dispose();
+                kafkaSender.close();
+            }
+            if (container != null) {
+                container.stop();
+                producerFactory.destroy();
+            }
+            tracer.close();
+            broker.destroy();
+        }
+    }
+
+    @Benchmark
+    public void roundTrip(PipelineState state) throws InterruptedException {
+        String batchId = Long.toString(state.batchIds.incrementAndGet());
+        CountDownLatch consumed = new CountDownLatch(BATCH);
+        state.batches.put(batchId, consumed);
+        try {
+            state.send(batchId);
+            if (!consumed.await(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("batch " + batchId + " not consumed within 30s");
+            }
+        } finally {
+            state.batches.remove(batchId);
+        }
+    }
+}
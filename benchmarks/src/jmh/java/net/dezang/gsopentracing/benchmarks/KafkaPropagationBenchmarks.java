@@ -0,0 +1,64 @@
+package net.dezang.gsopentracing.benchmarks;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.contrib.kafka.TracingKafkaUtils;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace header propagation per Kafka record: the producer side of {@code TracingProducerFactory} and the
+ * consumer side extraction, through {@link TracingKafkaUtils} and through {@link KafkaHeadersCodec}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KafkaPropagationBenchmarks {
+
+    @State(Scope.Thread)
+    public static class RecordState {
+        Headers headers;
+
+        @Setup
+        public void setUp(TracerState state) {
+            headers = new RecordHeaders();
+            headers.add("spring_json_header_types", "{}".getBytes());
+            TracingKafkaUtils.inject(state.parent, headers, state.tracer);
+        }
+    }
+
+    @Benchmark
+    public ProducerRecord<String, String> buildAndInjectSpan(TracerState state) {
+        ProducerRecord<String, String> record = new ProducerRecord<>("test.tracing", "key", "test");
+        Span span = TracingKafkaUtils.buildAndInjectSpan(record, state.tracer);
+        span.finish();
+        return record;
+    }
+
+    @Benchmark
+    public SpanContext extractSpanContext(TracerState state, RecordState record) {
+        return TracingKafkaUtils.extractSpanContext(record.headers, state.tracer);
+    }
+
+    @Benchmark
+    public SpanContext extractKafkaHeadersCodec(TracerState state, RecordState record) {
+        return state.tracer.extract(KafkaHeadersCodec.FORMAT, record.headers);
+    }
+
+    @Benchmark
+    public Headers injectKafkaHeadersCodec(TracerState state) {
+        Headers headers = new RecordHeaders();
+        state.tracer.inject(state.parent, KafkaHeadersCodec.FORMAT, headers);
+        return headers;
+    }
+}
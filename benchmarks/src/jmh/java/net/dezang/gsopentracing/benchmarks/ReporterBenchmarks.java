@@ -0,0 +1,113 @@
+package net.dezang.gsopentracing.benchmarks;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.RemoteReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
+import io.jaegertracing.thrift.internal.senders.UdpSender;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import net.dezang.gsopentracing.tracing.reporter.OffHeapReporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finished spans through a real reporter into a local UDP socket standing in for the agent: Jaeger's
+ * {@code RemoteReporter} against the tracing-core {@link OffHeapReporter}. Read {@code gc.alloc.rate.norm}
+ * and {@code gc.count} of the gc profiler next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReporterBenchmarks {
+    private static final int MAX_PACKET_SIZE = 65000;
+
+    @State(Scope.Benchmark)
+    public static class ReporterState {
+        @Param({"remote", "offheap"})
+        public String reporter;
+
+        JaegerTracer tracer;
+        SpanContext parent;
+        private DatagramSocket agent;
+        private Thread receiver;
+
+        @Setup
+        public void setUp() throws IOException {
+            agent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            agent.setReceiveBufferSize(4 * 1024 * 1024);
+            receiver = new Thread(this::receive, "agent");
+            receiver.setDaemon(true);
+            receiver.start();
+
+            String host = InetAddress.getLoopbackAddress().getHostAddress();
+            Reporter spanReporter = "offheap".equals(reporter)
+                    ? new OffHeapReporter(host, agent.getLocalPort(), MAX_PACKET_SIZE, 8 * 1024 * 1024,
+                    Duration.ofSeconds(1))
+                    : new RemoteReporter.Builder()
+                    .withSender(new UdpSender(host, agent.getLocalPort(), MAX_PACKET_SIZE))
+                    .withMaxQueueSize(10000)
+                    .withFlushInterval(1000)
+                    .build();
+            tracer = new JaegerTracer.Builder("benchmarks")
+                    .withSampler(new ConstSampler(true))
+                    .withReporter(spanReporter)
+                    .build();
+
+            Span root = tracer.buildSpan("root").start();
+            parent = root.context();
+            root.finish();
+        }
+
+        private void receive() {
+            DatagramPacket packet = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+            while (!agent.isClosed()) {
+                try {
+                    agent.receive(packet);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            tracer.close();
+            agent.close();
+        }
+    }
+
+    @Benchmark
+    public Span childSpan(ReporterState state) {
+        Span span = state.tracer.buildSpan("consumed")
+                .asChildOf(state.parent)
+                .start();
+        span.finish();
+        return span;
+    }
+
+    @Benchmark
+    public Span childSpanWithTagsAndLog(ReporterState state) {
+        Span span = state.tracer.buildSpan("saveToDb")
+                .asChildOf(state.parent)
+                .withTag("batch.size", 100)
+                .withTag("db.type", "sql")
+                .start();
+        span.log("saved");
+        span.finish();
+        return span;
+    }
+}
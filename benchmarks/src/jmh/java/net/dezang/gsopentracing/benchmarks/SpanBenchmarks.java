@@ -0,0 +1,76 @@
+package net.dezang.gsopentracing.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Span lifecycle as the apps use it: child spans of an extracted parent, scope activation around work,
+ * and the tag/log calls of {@code GsOpentracingApplication}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpanBenchmarks {
+
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    public static class ActiveSpanState {
+        Span span;
+
+        @Setup(Level.Iteration)
+        public void setUp(TracerState state) {
+            span = state.tracer.buildSpan("consumed").asChildOf(state.parent).start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            span.finish();
+        }
+    }
+
+    @Benchmark
+    public Span childSpan(TracerState state) {
+        Span span = state.tracer.buildSpan("consumed")
+                .asChildOf(state.parent)
+                .start();
+        span.finish();
+        return span;
+    }
+
+    @Benchmark
+    public Span activateScope(TracerState state, ActiveSpanState active) {
+        try (Scope ignored = state.tracer.scopeManager().activate(active.span)) {
+            return state.tracer.activeSpan();
+        }
+    }
+
+    @Benchmark
+    public Span childSpanWithScope(TracerState state) {
+        Span span = state.tracer.buildSpan("saveToDb")
+                .asChildOf(state.parent)
+                .start();
+        try (Scope ignored = state.tracer.scopeManager().activate(span)) {
+            return span;
+        } finally {
+            span.finish();
+        }
+    }
+
+    @Benchmark
+    public Span tagAndLog(TracerState state) {
+        Span span = state.tracer.buildSpan("formatString").asChildOf(state.parent).start();
+        span.setTag("hello-to", "world");
+        span.log(ImmutableMap.of("event", "string-format", "value", "world"));
+        span.finish();
+        return span;
+    }
+}
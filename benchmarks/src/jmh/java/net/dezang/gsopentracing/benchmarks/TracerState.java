@@ -0,0 +1,59 @@
+package net.dezang.gsopentracing.benchmarks;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import net.dezang.gsopentracing.tracing.propagation.TextMapUberTraceIdCodec;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One tracer shared by all benchmark threads, as in the apps, with sampling switched on or off.
+ * Spans go to a {@link NoopReporter} so that only the in-process cost is measured.
+ */
+@State(Scope.Benchmark)
+public class TracerState {
+    @Param({"true", "false"})
+    public boolean sampled;
+
+    /**
+     * {@code jaeger} keeps the stock TEXT_MAP codec, {@code fast} registers the tracing-core one.
+     */
+    @Param({"jaeger", "fast"})
+    public String codec;
+
+    public JaegerTracer tracer;
+    public SpanContext parent;
+
+    @Setup
+    public void setUp() {
+        KafkaHeadersCodec kafkaHeadersCodec = new KafkaHeadersCodec(false);
+        JaegerTracer.Builder builder = new JaegerTracer.Builder("benchmarks")
+                .withSampler(new ConstSampler(sampled))
+                .withReporter(new NoopReporter())
+                .registerInjector(KafkaHeadersCodec.FORMAT, kafkaHeadersCodec)
+                .registerExtractor(KafkaHeadersCodec.FORMAT, kafkaHeadersCodec);
+        if ("fast".equals(codec)) {
+            TextMapUberTraceIdCodec textMapCodec = new TextMapUberTraceIdCodec();
+            builder.registerInjector(Format.Builtin.TEXT_MAP, textMapCodec);
+            builder.registerExtractor(Format.Builtin.TEXT_MAP, textMapCodec);
+        }
+        tracer = builder.build();
+
+        Span root = tracer.buildSpan("root").start();
+        parent = root.context();
+        root.finish();
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracer.close();
+    }
+}
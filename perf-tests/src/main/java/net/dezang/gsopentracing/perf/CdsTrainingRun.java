@@ -0,0 +1,29 @@
+package net.dezang.gsopentracing.perf;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Training run of the Gradle {@code cdsArchive} task. Runs the {@code main} of the app named by
+ * {@value #MAIN_CLASS}, which returns once the context is ready, and exits the JVM; the shutdown hook closes
+ * the context and the JVM then dumps the classes loaded during startup into the AppCDS archive. Lives here
+ * rather than in the apps, so that nothing on their own classpath can exit the JVM.
+ */
+public final class CdsTrainingRun {
+    static final String MAIN_CLASS = "cds.training.main-class";
+
+    private CdsTrainingRun() {
+    }
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        Method main = Class.forName(System.getProperty(MAIN_CLASS)).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            // the app's own threads may keep the JVM alive after a failed start
+            e.getCause().printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,123 @@
+package net.dezang.gsopentracing.perf;
+
+import io.jaegertracing.thriftjava.Batch;
+import io.jaegertracing.thriftjava.Span;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Jaeger agent: decodes the {@code Agent.emitBatch} datagrams (Thrift compact) that the
+ * tracer's reporter sends to {@code tracing.sender.agent-port} and keeps every span with its service name.
+ */
+class SpanCollector implements AutoCloseable {
+    private final DatagramSocket socket;
+    private final Thread receiver;
+    private final Queue<CollectedSpan> spans = new ConcurrentLinkedQueue<>();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong malformedPackets = new AtomicLong();
+
+    /**
+     * @param port 6831 to replace a local agent, 0 for any free port
+     */
+    SpanCollector(int port) throws SocketException {
+        socket = new DatagramSocket(port, InetAddress.getLoopbackAddress());
+        socket.setReceiveBufferSize(8 * 1024 * 1024);
+        receiver = new Thread(this::receive, "span-collector");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    List<CollectedSpan> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    int getSpanCount() {
+        return spans.size();
+    }
+
+    long getPackets() {
+        return packets.get();
+    }
+
+    long getMalformedPackets() {
+        return malformedPackets.get();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[65535];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+            packets.incrementAndGet();
+            try {
+                Batch batch = decode(buffer, packet.getLength());
+                String service = batch.getProcess().getServiceName();
+                for (Span span : batch.getSpans()) {
+                    spans.add(new CollectedSpan(service, span));
+                }
+            } catch (TException e) {
+                malformedPackets.incrementAndGet();
+            }
+        }
+    }
+
+    static Batch decode(byte[] bytes, int length) throws TException {
+        TCompactProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(bytes, 0, length));
+        TMessage message = protocol.readMessageBegin();
+        if (!"emitBatch".equals(message.name)) {
+            throw new TProtocolException("unexpected agent call " + message.name);
+        }
+        protocol.readStructBegin();
+        TField field = protocol.readFieldBegin();
+        if (field.id != 1 || field.type != TType.STRUCT) {
+            throw new TProtocolException("emitBatch without a batch");
+        }
+        Batch batch = new Batch();
+        batch.read(protocol);
+        return batch;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        socket.close();
+        receiver.join(1000);
+    }
+
+    static final class CollectedSpan {
+        final String service;
+        final Span span;
+
+        CollectedSpan(String service, Span span) {
+            this.service = service;
+            this.span = span;
+        }
+
+        String traceId() {
+            return Long.toHexString(span.getTraceIdHigh()) + ":" + Long.toHexString(span.getTraceIdLow());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package net.dezang.gsopentracing.perf;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Cold start of every app in a fresh JVM against an embedded broker, {@code ./gradlew :perf-tests:startupBenchmark}.
+ * Reports per app and mode the time from launching the JVM to the context being ready (Spring's
+ * {@code JVM running for}) and to the first record the app handled, i.e. the start of the first span it
+ * reports to the in-process {@link SpanCollector}. The topics are filled before the first run and every run
+ * reads them from the beginning with a new consumer group, as a pod scaled out on lag would.
+ * <p>
+ * app-rest-producer consumes nothing; it is sent {@code GET /send} until it answers, so its first record is
+ * the first request it served. app-producer's is the first record it sent, app-simple's its first span.
+ * <p>
+ * Modes are {@code default}, the {@code fast-startup} profile and {@code fast-startup} with the app's AppCDS
+ * archive, when {@code cdsArchive} has written one. Tune with system properties: {@code startup.runs} (3),
+ * {@code startup.apps} (all), {@code startup.records} (100) and {@code startup.timeout} (60s).
+ */
+public final class StartupBenchmark {
+    private static final List<App> APPS = List.of(
+            new App("app-simple", "net.dezang.gsopentracing.GsOpentracingApplication", null, "startup"),
+            new App("app-producer", "net.dezang.gsopentracing.ProducingApp", null),
+            new App("app-rest-producer", "net.dezang.gsopentracing.RestProducingApp",
+                    "http://localhost:8080/send?message=startup"),
+            new App("app-stream", "net.dezang.gsopentracing.StreamApp", null),
+            new App("app-consumer", "net.dezang.gsopentracing.ConsumerApp", null),
+            new App("app-reactive", "net.dezang.gsopentracing.ReactiveApp", null));
+    private static final List<String> TOPICS = List.of("test.tracing", "test.tracing.stream");
+    private static final Pattern STARTED =
+            Pattern.compile("Started \\w+ in [\\d.]+ seconds \\(JVM running for ([\\d.]+)\\)");
+
+    private static final int RUNS = Integer.getInteger("startup.runs", 3);
+    private static final int RECORDS = Integer.getInteger("startup.records", 100);
+    private static final Duration TIMEOUT = DurationStyle.detectAndParse(System.getProperty("startup.timeout", "60s"));
+
+    private final EmbeddedKafkaBroker broker;
+    private final SpanCollector collector;
+    private final Path workDirectory;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private int runId;
+
+    private StartupBenchmark(EmbeddedKafkaBroker broker, SpanCollector collector, Path workDirectory) {
+        this.broker = broker;
+        this.collector = collector;
+        this.workDirectory = workDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> selected = Arrays.asList(System.getProperty("startup.apps", "").split(","));
+        List<App> apps = APPS.stream()
+                .filter(app -> selected.contains("") || selected.contains(app.name))
+                .collect(Collectors.toList());
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, true, 4, TOPICS.toArray(new String[0]));
+        broker.afterPropertiesSet();
+        try (SpanCollector collector = new SpanCollector(0)) {
+            StartupBenchmark benchmark = new StartupBenchmark(broker, collector,
+                    Files.createDirectories(Paths.get("build", "startup")));
+            benchmark.fillTopics();
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("%-18s %-18s %5s %12s %12s %16s %16s",
+                    "app", "mode", "runs", "ready p50", "ready max", "1st record p50", "1st record max"));
+            for (App app : apps) {
+                for (Mode mode : Mode.values()) {
+                    if (mode.cds && !Files.exists(app.cdsArchive())) {
+                        lines.add(String.format("%-18s %-18s no archive, run ./gradlew :%s:cdsArchive",
+                                app.name, mode.label, app.name));
+                        continue;
+                    }
+                    List<Run> runs = new ArrayList<>();
+                    for (int i = 0; i < RUNS; i++) {
+                        runs.add(benchmark.run(app, mode));
+                    }
+                    lines.add(summary(app, mode, runs));
+                }
+            }
+            System.out.println();
+            lines.forEach(System.out::println);
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    private void fillTopics() throws Exception {
+        Map<String, Object> properties = Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(properties)) {
+            for (String topic : TOPICS) {
+                for (int i = 0; i < RECORDS; i++) {
+                    producer.send(new ProducerRecord<>(topic, "key-" + i, "startup " + i));
+                }
+            }
+            producer.flush();
+        }
+    }
+
+    private Run run(App app, Mode mode) throws Exception {
+        String id = app.name + "-" + mode.label + "-" + runId++;
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("startup.java",
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        if (mode.cds) {
+            command.add("-XX:SharedArchiveFile=" + app.cdsArchive());
+        }
+        command.addAll(List.of("-cp", app.classpath(), app.mainClass,
+                "--spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                "--spring.kafka.consumer.group-id=" + id,
+                "--spring.kafka.consumer.auto-offset-reset=earliest",
+                "--spring.kafka.streams.application-id=" + id,
+                "--spring.kafka.streams.state-dir=" + workDirectory.resolve(id).toAbsolutePath(),
+                "--spring.datasource.url=jdbc:h2:mem:" + id,
+                "--tracing.sender.agent-host=127.0.0.1",
+                "--tracing.sender.agent-port=" + collector.getPort(),
+                "--tracing.sampler.type=const",
+                "--tracing.sampler.param=1",
+                "--tracing.tail-sampling.enabled=false"));
+        if (mode.profile != null) {
+            command.add("--spring.profiles.active=" + mode.profile);
+        }
+        command.addAll(app.args);
+        Path log = workDirectory.resolve(id + ".log");
+
+        long launchedMillis = System.currentTimeMillis();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        try {
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            OptionalLong firstSpanMillis = OptionalLong.empty();
+            while (firstSpanMillis.isEmpty() && System.nanoTime() < deadline) {
+                if (app.trigger != null) {
+                    request(app.trigger);
+                }
+                TimeUnit.MILLISECONDS.sleep(50);
+                firstSpanMillis = collector.getSpans().stream()
+                        .filter(collected -> collected.service.equals(app.name))
+                        .mapToLong(collected -> TimeUnit.MICROSECONDS.toMillis(collected.span.getStartTime()))
+                        .filter(startMillis -> startMillis >= launchedMillis)
+                        .min();
+            }
+            return new Run(readyMillis(log), firstSpanMillis.isPresent()
+                    ? firstSpanMillis.getAsLong() - launchedMillis : -1);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private void request(URI uri) throws InterruptedException {
+        try {
+            httpClient.send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (ConnectException e) {
+            // not listening yet
+        } catch (IOException e) {
+            // the span still tells whether the request reached the app
+        }
+    }
+
+    private static long readyMillis(Path log) throws IOException {
+        Matcher matcher = STARTED.matcher(Files.readString(log));
+        return matcher.find() ? (long) (Double.parseDouble(matcher.group(1)) * 1000) : -1;
+    }
+
+    private static String summary(App app, Mode mode, List<Run> runs) {
+        long[] ready = runs.stream().mapToLong(run -> run.readyMillis).filter(millis -> millis >= 0).sorted().toArray();
+        long[] firstRecord = runs.stream().mapToLong(run -> run.firstRecordMillis).filter(millis -> millis >= 0)
+                .sorted().toArray();
+        String line = String.format("%-18s %-18s %5d %12s %12s %16s %16s", app.name, mode.label, runs.size(),
+                millis(ready, false), millis(ready, true), millis(firstRecord, false), millis(firstRecord, true));
+        int failed = runs.size() - firstRecord.length;
+        return failed == 0 ? line : line + "  (" + failed + " without a record within " + TIMEOUT.toSeconds() + "s)";
+    }
+
+    private static String millis(long[] sorted, boolean max) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        return (max ? sorted[sorted.length - 1] : sorted[(sorted.length - 1) / 2]) + " ms";
+    }
+
+    private enum Mode {
+        DEFAULT("default", null, false),
+        FAST_STARTUP("fast-startup", "fast-startup", false),
+        FAST_STARTUP_CDS("fast-startup+cds", "fast-startup", true);
+
+        private final String label;
+        private final String profile;
+        private final boolean cds;
+
+        Mode(String label, String profile, boolean cds) {
+            this.label = label;
+            this.profile = profile;
+            this.cds = cds;
+        }
+    }
+
+    private static final class App {
+        private final String name;
+        private final String mainClass;
+        private final URI trigger;
+        private final List<String> args;
+
+        private App(String name, String mainClass, String trigger, String... args) {
+            this.name = name;
+            this.mainClass = mainClass;
+            this.trigger = trigger != null ? URI.create(trigger) : null;
+            this.args = List.of(args);
+        }
+
+        /**
+         * The app's plain jar and its runtime jars, handed over by the Gradle task; also the classpath the
+         * AppCDS archive was dumped with, which the JVM requires for using it.
+         */
+        private String classpath() {
+            String classpath = System.getProperty("startup.classpath." + name);
+            if (classpath == null) {
+                throw new IllegalStateException("no classpath for " + name
+                        + ", run it with ./gradlew :perf-tests:startupBenchmark");
+            }
+            return classpath;
+        }
+
+        private Path cdsArchive() {
+            return Paths.get(System.getProperty("startup.cds." + name, name + ".jsa"));
+        }
+    }
+
+    private static final class Run {
+        private final long readyMillis;
+        private final long firstRecordMillis;
+
+        private Run(long readyMillis, long firstRecordMillis) {
+            this.readyMillis = readyMillis;
+            this.firstRecordMillis = firstRecordMillis;
+        }
+    }
+}
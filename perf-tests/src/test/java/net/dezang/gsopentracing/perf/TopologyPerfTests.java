@@ -0,0 +1,273 @@
+package net.dezang.gsopentracing.perf;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.dezang.gsopentracing.ConsumerApp;
+import net.dezang.gsopentracing.ProducingApp;
+import net.dezang.gsopentracing.StreamApp;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import net.dezang.gsopentracing.tracing.latency.SendTimestampInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * app-producer (load generator), app-stream and app-consumer in one JVM on an embedded broker, with a
+ * {@link SpanCollector} in place of the Jaeger agent. One load run in {@link #runTopology()}, then checks for
+ * traces that break at a topic, spans lost on the way to the agent and end-to-end throughput and latency.
+ * <p>
+ * Tune with system properties: {@code perf.rate} (records/s, 200), {@code perf.duration} (20s),
+ * {@code perf.min-throughput-ratio} (0.9 of the rate), {@code perf.max-p99} (2s end-to-end),
+ * {@code perf.max-drop-ratio} (0.001), {@code perf.min-continuity} (0.99) and {@code perf.agent-port}
+ * (0 = any free port).
+ */
+class TopologyPerfTests {
+    private static final String SOURCE_TOPIC = "test.tracing";
+    private static final String SINK_TOPIC = "test.tracing.stream";
+    private static final int PARTITIONS = 4;
+    private static final Set<String> SERVICES = Set.of("app-producer", "app-stream", "app-consumer");
+
+    private static final long RATE = Long.getLong("perf.rate", 200);
+    private static final Duration DURATION = DurationStyle.detectAndParse(System.getProperty("perf.duration", "20s"));
+    private static final double MIN_THROUGHPUT_RATIO =
+            Double.parseDouble(System.getProperty("perf.min-throughput-ratio", "0.9"));
+    private static final Duration MAX_P99 = DurationStyle.detectAndParse(System.getProperty("perf.max-p99", "2s"));
+    private static final double MAX_DROP_RATIO = Double.parseDouble(System.getProperty("perf.max-drop-ratio", "0.001"));
+    private static final double MIN_CONTINUITY = Double.parseDouble(System.getProperty("perf.min-continuity", "0.99"));
+
+    private static final List<ConfigurableApplicationContext> apps = new ArrayList<>();
+    private static EmbeddedKafkaBroker broker;
+    private static SpanCollector collector;
+    private static ConfigurableApplicationContext consumer;
+    private static long produced;
+    private static double throughput;
+
+    @BeforeAll
+    static void runTopology() throws Exception {
+        broker = new EmbeddedKafkaBroker(1, true, PARTITIONS, SOURCE_TOPIC, SINK_TOPIC);
+        broker.afterPropertiesSet();
+        collector = new SpanCollector(Integer.getInteger("perf.agent-port", 0));
+
+        consumer = start(ConsumerApp.class, "app-consumer",
+                "spring.kafka.consumer.group-id=app-consumer",
+                "spring.kafka.consumer.auto-offset-reset=earliest",
+                "consumer.parallel.enabled=true",
+                "consumer.parallel.threads=256",
+                "consumer.parallel.max-in-flight=1000");
+        start(StreamApp.class, "app-stream",
+                "spring.kafka.streams.application-id=app-stream",
+                "spring.kafka.streams.state-dir=" + Files.createTempDirectory("app-stream"),
+                "spring.kafka.streams.properties.producer.interceptor.classes="
+                        + SendTimestampInterceptor.class.getName(),
+                "stream.async.enabled=true",
+                "stream.async.threads=256",
+                "stream.async.max-in-flight=256");
+        start(ProducingApp.class, "app-producer",
+                "spring.kafka.producer.properties.interceptor.classes=" + SendTimestampInterceptor.class.getName(),
+                "producer.load.enabled=true",
+                "producer.load.mode=open",
+                "producer.load.rate=" + RATE,
+                "producer.load.threads=2",
+                "producer.load.key-distribution=uniform",
+                "producer.load.duration=" + DURATION.toMillis() + "ms");
+
+        measureThroughput();
+
+        // reporters flush every second; wait until every finished span arrived or nothing more comes
+        int collected = -1;
+        while (collector.getSpanCount() < finishedSpans() && collector.getSpanCount() != collected) {
+            collected = collector.getSpanCount();
+            Thread.sleep(2000);
+        }
+    }
+
+    /**
+     * Samples the processed count until the load is over and app-consumer caught up. The throughput is taken
+     * between the first and the last sample that saw new records, so neither app startup nor the wait for
+     * the end of the load dilutes it.
+     */
+    private static void measureThroughput() throws InterruptedException {
+        long endOfLoad = System.nanoTime() + DURATION.plusSeconds(2).toNanos();
+        long deadline = endOfLoad + TimeUnit.SECONDS.toNanos(60);
+        long firstCount = 0;
+        long firstNanos = 0;
+        long lastCount = 0;
+        long lastNanos = 0;
+        while (true) {
+            long now = System.nanoTime();
+            long count = processed();
+            if (count > lastCount) {
+                if (lastCount == 0) {
+                    firstCount = count;
+                    firstNanos = now;
+                }
+                lastCount = count;
+                lastNanos = now;
+            }
+            if (now >= endOfLoad) {
+                if (produced == 0) {
+                    produced = endOffsets(SOURCE_TOPIC);
+                }
+                if (count >= produced || now >= deadline) {
+                    break;
+                }
+            }
+            Thread.sleep(100);
+        }
+        throughput = lastNanos > firstNanos ? (lastCount - firstCount) / ((lastNanos - firstNanos) / 1e9) : 0;
+    }
+
+    @AfterAll
+    static void stopTopology() throws InterruptedException {
+        for (int i = apps.size() - 1; i >= 0; i--) {
+            apps.get(i).close();
+        }
+        if (collector != null) {
+            collector.close();
+        }
+        if (broker != null) {
+            broker.destroy();
+        }
+    }
+
+    @Test
+    void everyRecordIsConsumed() {
+        assertThat(produced).as("records produced").isGreaterThan(0);
+        assertThat(processed()).as("records processed by app-consumer").isGreaterThanOrEqualTo(produced);
+    }
+
+    @Test
+    void tracesContinueAcrossTopics() {
+        Map<String, Set<String>> servicesByTrace = collector.getSpans().stream()
+                .collect(Collectors.groupingBy(SpanCollector.CollectedSpan::traceId,
+                        Collectors.mapping(collected -> collected.service, Collectors.toSet())));
+        Set<String> consumedTraces = collector.getSpans().stream()
+                .filter(collected -> collected.service.equals("app-consumer")
+                        && collected.span.getOperationName().equals("consumed"))
+                .map(SpanCollector.CollectedSpan::traceId)
+                .collect(Collectors.toSet());
+        long complete = consumedTraces.stream()
+                .filter(traceId -> servicesByTrace.get(traceId).containsAll(SERVICES))
+                .count();
+
+        assertThat(consumedTraces).as("traces with a consumed span").isNotEmpty();
+        assertThat((double) complete / consumedTraces.size())
+                .as("share of consumed traces with spans of %s (%d of %d)", SERVICES, complete, consumedTraces.size())
+                .isGreaterThanOrEqualTo(MIN_CONTINUITY);
+    }
+
+    @Test
+    void finishedSpansReachTheAgent() {
+        long finished = finishedSpans();
+        long dropped = Math.max(0, finished - collector.getSpanCount());
+
+        assertThat(collector.getMalformedPackets()).as("undecodable datagrams").isZero();
+        assertThat((double) dropped / finished)
+                .as("dropped share (%d of %d finished spans, %d datagrams)", dropped, finished, collector.getPackets())
+                .isLessThanOrEqualTo(MAX_DROP_RATIO);
+    }
+
+    @Test
+    void throughputAndLatency() {
+        double p99Millis = endToEndTimers().stream()
+                .flatMap(timer -> Arrays.stream(timer.takeSnapshot().percentileValues()))
+                .filter(value -> value.percentile() == 0.99)
+                .mapToDouble(value -> value.value(TimeUnit.MILLISECONDS))
+                .max()
+                .orElse(Double.NaN);
+
+        assertThat(throughput).as("records/s processed by app-consumer, first to last record")
+                .isGreaterThanOrEqualTo(RATE * MIN_THROUGHPUT_RATIO);
+        assertThat(p99Millis).as("end-to-end p99 ms").isLessThanOrEqualTo((double) MAX_P99.toMillis());
+    }
+
+    private static ConfigurableApplicationContext start(Class<?> app, String name, String... properties) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(app)
+                .initializers(applicationContext -> applicationContext.getBeanFactory()
+                        .registerSingleton("perfTestsScanFilter", new NestedInScanFilter(app)))
+                .properties(
+                        "spring.config.name=perf-tests",
+                        "spring.application.name=" + name,
+                        "spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                        "tracing.sender.agent-host=127.0.0.1",
+                        "tracing.sender.agent-port=" + collector.getPort())
+                .properties(properties)
+                .run();
+        apps.add(context);
+        return context;
+    }
+
+    private static long processed() {
+        return endToEndTimers().stream().mapToLong(Timer::count).sum();
+    }
+
+    private static Collection<Timer> endToEndTimers() {
+        return consumer.getBean(MeterRegistry.class).find(RecordLatencyTracker.END_TO_END_METER)
+                .tag("topic", SINK_TOPIC)
+                .tag("stage", "processed")
+                .timers();
+    }
+
+    private static long finishedSpans() {
+        return apps.stream()
+                .flatMap(app -> app.getBean(MeterRegistry.class).find("tracing.spans").functionTimers().stream())
+                .mapToLong(timer -> (long) timer.count())
+                .sum();
+    }
+
+    private static long endOffsets(String topic) {
+        Map<String, Object> properties = Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        try (KafkaConsumer<String, String> offsets = new KafkaConsumer<>(properties)) {
+            List<TopicPartition> partitions = IntStream.range(0, PARTITIONS)
+                    .mapToObj(partition -> new TopicPartition(topic, partition))
+                    .collect(Collectors.toList());
+            return offsets.endOffsets(partitions).values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * All apps share the {@code net.dezang.gsopentracing} package; limits the component scan of one of them to
+     * the classes nested in its main class.
+     */
+    private static final class NestedInScanFilter extends TypeExcludeFilter {
+        private final String appClassName;
+
+        private NestedInScanFilter(Class<?> app) {
+            this.appClassName = app.getName();
+        }
+
+        @Override
+        public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+            String className = metadataReader.getClassMetadata().getClassName();
+            return !className.equals(appClassName) && !className.startsWith(appClassName + "$");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.Configuration;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.internal.samplers.ProbabilisticSampler;
+import io.jaegertracing.internal.samplers.RateLimitingSampler;
+
+import java.util.Map;
+
+/**
+ * The standard {@code JAEGER_*} settings, read from system properties or else environment variables as
+ * {@link Configuration#fromEnv()} reads them. They seed the defaults of {@link TracingProperties}, so an
+ * explicitly set {@code tracing.*} property overrides them.
+ */
+final class JaegerEnvironment {
+    private JaegerEnvironment() {
+    }
+
+    static String get(String name) {
+        return System.getProperty(name, System.getenv(name));
+    }
+
+    static Configuration.SamplerConfiguration sampler() {
+        return Configuration.SamplerConfiguration.fromEnv();
+    }
+
+    static Configuration.ReporterConfiguration reporter() {
+        return Configuration.ReporterConfiguration.fromEnv();
+    }
+
+    static Configuration.SenderConfiguration sender() {
+        return Configuration.SenderConfiguration.fromEnv();
+    }
+
+    /**
+     * {@code remote} has no counterpart here and is left to the default.
+     */
+    static TracingProperties.SamplerType samplerType(String jaegerType, TracingProperties.SamplerType fallback) {
+        if (ConstSampler.TYPE.equals(jaegerType)) {
+            return TracingProperties.SamplerType.CONST;
+        }
+        if (ProbabilisticSampler.TYPE.equals(jaegerType)) {
+            return TracingProperties.SamplerType.PROBABILISTIC;
+        }
+        if (RateLimitingSampler.TYPE.equals(jaegerType)) {
+            return TracingProperties.SamplerType.RATE_LIMITING;
+        }
+        return fallback;
+    }
+
+    /**
+     * Applies {@code JAEGER_TAGS} and {@code JAEGER_TRACEID_128BIT}, which have no {@code tracing.*} property.
+     */
+    static void customize(JaegerTracer.Builder builder, String serviceName) {
+        Map<String, String> tags = Configuration.fromEnv(serviceName).getTracerTags();
+        if (tags != null && !tags.isEmpty()) {
+            builder.withTags(tags);
+        }
+        if (Boolean.parseBoolean(get(Configuration.JAEGER_TRACEID_128BIT))) {
+            builder.withTraceId128Bit();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.internal.JaegerTracer;
+
+/**
+ * Callback to adjust the {@link JaegerTracer.Builder} before {@link TracingAutoConfiguration} builds the tracer,
+ * e.g. to register codecs or a scope manager. Customizers run in {@link org.springframework.core.Ordered} order.
+ */
+@FunctionalInterface
+public interface JaegerTracerCustomizer {
+    void customize(JaegerTracer.Builder builder);
+}
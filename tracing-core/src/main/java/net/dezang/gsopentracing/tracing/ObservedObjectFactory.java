@@ -0,0 +1,36 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.internal.JaegerObjectFactory;
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.Reference;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes the tracer create {@link ObservedSpan}s and reports each new span to the {@link SpanObserver}s.
+ * Passed to {@link JaegerTracer.Builder} in place of the default factory, so the hook costs no extra object
+ * per span.
+ */
+public class ObservedObjectFactory extends JaegerObjectFactory {
+    private final SpanObserver[] observers;
+
+    public ObservedObjectFactory(List<? extends SpanObserver> observers) {
+        this.observers = observers.toArray(new SpanObserver[0]);
+    }
+
+    @Override
+    public JaegerSpan createSpan(JaegerTracer tracer, String operationName, JaegerSpanContext context,
+                                 long startTimeMicroseconds, long startTimeNanoTicks,
+                                 boolean computeDurationViaNanoTicks, Map<String, Object> tags,
+                                 List<Reference> references) {
+        JaegerSpan span = new ObservedSpan(observers, tracer, operationName, context, startTimeMicroseconds,
+                startTimeNanoTicks, computeDurationViaNanoTicks, tags, references);
+        for (SpanObserver observer : observers) {
+            observer.onStart(span);
+        }
+        return span;
+    }
+}
@@ -0,0 +1,63 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.Reference;
+import io.opentracing.tag.Tags;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link JaegerSpan} that tells the {@link SpanObserver}s when it finishes. Unlike a reporter, which
+ * Jaeger only calls for sampled spans, observers see every span. The error flag is tracked here because an
+ * unsampled span does not keep its tags.
+ */
+class ObservedSpan extends JaegerSpan {
+    private final SpanObserver[] observers;
+    private volatile boolean error;
+    private boolean finished;
+
+    ObservedSpan(SpanObserver[] observers, JaegerTracer tracer, String operationName, JaegerSpanContext context,
+                 long startTimeMicroseconds, long startTimeNanoTicks, boolean computeDurationViaNanoTicks,
+                 Map<String, Object> tags, List<Reference> references) {
+        super(tracer, operationName, context, startTimeMicroseconds, startTimeNanoTicks, computeDurationViaNanoTicks,
+                tags, references);
+        this.observers = observers;
+        this.error = tags != null && Boolean.TRUE.equals(tags.get(Tags.ERROR.getKey()));
+    }
+
+    @Override
+    public synchronized JaegerSpan setTag(String key, boolean value) {
+        if (Tags.ERROR.getKey().equals(key)) {
+            error = value;
+        }
+        return super.setTag(key, value);
+    }
+
+    @Override
+    public void finish() {
+        super.finish();
+        finished();
+    }
+
+    @Override
+    public void finish(long finishMicros) {
+        super.finish(finishMicros);
+        finished();
+    }
+
+    // finish() may delegate to finish(long), and callers may finish twice; notify once
+    private void finished() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+        }
+        for (SpanObserver observer : observers) {
+            observer.onFinish(this, error);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.internal.JaegerSpan;
+
+/**
+ * Sees every span the shared tracer starts and finishes, sampled or not. Beans of this type are handed to the
+ * tracer by {@link TracingAutoConfiguration}. Called on the thread that starts or finishes the span, so
+ * implementations must be cheap and must not allocate per span.
+ */
+public interface SpanObserver {
+
+    default void onStart(JaegerSpan span) {
+    }
+
+    /**
+     * @param error whether {@code error=true} was tagged on the span; unsampled spans drop their tags, so
+     *              this is the only way to see it for them
+     */
+    default void onFinish(JaegerSpan span, boolean error) {
+    }
+}
@@ -0,0 +1,232 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.CompositeReporter;
+import io.jaegertracing.internal.reporters.RemoteReporter;
+import io.jaegertracing.spi.Reporter;
+import io.jaegertracing.spi.Sampler;
+import io.jaegertracing.thrift.internal.senders.UdpSender;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import net.dezang.gsopentracing.tracing.latency.RecordLatencyTracker;
+import net.dezang.gsopentracing.tracing.metrics.SpanMetrics;
+import net.dezang.gsopentracing.tracing.metrics.SpanMetricsMeterBinder;
+import net.dezang.gsopentracing.tracing.propagation.KafkaHeadersCodec;
+import net.dezang.gsopentracing.tracing.propagation.TextMapUberTraceIdCodec;
+import net.dezang.gsopentracing.tracing.reactor.ReactorTracing;
+import net.dezang.gsopentracing.tracing.reporter.AsyncLoggingMeterBinder;
+import net.dezang.gsopentracing.tracing.reporter.AsyncLoggingReporter;
+import net.dezang.gsopentracing.tracing.reporter.DeferredReporter;
+import net.dezang.gsopentracing.tracing.reporter.OffHeapReporter;
+import net.dezang.gsopentracing.tracing.reporter.TailSamplingMeterBinder;
+import net.dezang.gsopentracing.tracing.reporter.TailSamplingReporter;
+import net.dezang.gsopentracing.tracing.sampler.Samplers;
+import net.dezang.gsopentracing.tracing.spool.SpanSpool;
+import net.dezang.gsopentracing.tracing.spool.SpoolingReporter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the single Jaeger {@link Tracer} shared by every app, replacing the per-app {@code tracer()} beans.
+ * Runs before the opentracing-spring starter so that its no-op fallback tracer never wins.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(JaegerTracer.class)
+@EnableConfigurationProperties(TracingProperties.class)
+@AutoConfigureBefore(name = "io.opentracing.contrib.spring.tracer.configuration.TracerAutoConfiguration")
+public class TracingAutoConfiguration {
+
+    // the tracer closes its sampler and reporter, so Spring must not close them a second time
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean
+    Sampler jaegerSampler(TracingProperties properties) {
+        return Samplers.create(properties.getSampler());
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean
+    Reporter jaegerReporter(TracingProperties properties, Environment environment,
+                            ObjectProvider<TailSamplingReporter> tailSamplingReporter,
+                            ObjectProvider<AsyncLoggingReporter> asyncLoggingReporter) {
+        Reporter reporter = tailSamplingReporter.getIfAvailable(() -> remoteReporter(properties, environment));
+        AsyncLoggingReporter loggingReporter = asyncLoggingReporter.getIfAvailable();
+        if (loggingReporter != null) {
+            return new CompositeReporter(reporter, loggingReporter);
+        }
+        return reporter;
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(name = "tracing.log-spans", havingValue = "true")
+    AsyncLoggingReporter asyncLoggingReporter(TracingProperties properties) {
+        TracingProperties.SpanLogProperties spanLog = properties.getSpanLog();
+        return new AsyncLoggingReporter((int) spanLog.getBufferSize().toBytes(), spanLog.getMaxPerSecond());
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(name = "tracing.tail-sampling.enabled", havingValue = "true")
+    TailSamplingReporter tailSamplingReporter(TracingProperties properties, Environment environment) {
+        TracingProperties.TailSamplingProperties tailSampling = properties.getTailSampling();
+        return new TailSamplingReporter(remoteReporter(properties, environment), tailSampling.getKeepRatio(),
+                tailSampling.getSlowThreshold(), tailSampling.getOperationThresholds(), tailSampling.getMaxSpans(),
+                tailSampling.getMaxTraces(), tailSampling.getMaxTraceAge());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.propagation.fast-codec", matchIfMissing = true)
+    JaegerTracerCustomizer textMapCodecCustomizer() {
+        return builder -> {
+            TextMapUberTraceIdCodec codec = new TextMapUberTraceIdCodec();
+            builder.registerInjector(Format.Builtin.TEXT_MAP, codec);
+            builder.registerExtractor(Format.Builtin.TEXT_MAP, codec);
+        };
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(Tracer.class)
+    JaegerTracer tracer(TracingProperties properties, Environment environment, Sampler sampler, Reporter reporter,
+                        ObjectProvider<JaegerTracerCustomizer> customizers, ObjectProvider<SpanObserver> spanObservers) {
+        String serviceName = serviceName(properties, environment);
+        List<SpanObserver> observers = spanObservers.orderedStream().collect(Collectors.toList());
+        // the object factory can only be handed to the protected Builder constructor
+        JaegerTracer.Builder builder = observers.isEmpty()
+                ? new JaegerTracer.Builder(serviceName)
+                : new JaegerTracer.Builder(serviceName, new ObservedObjectFactory(observers)) {
+                };
+        builder.withSampler(sampler)
+                .withReporter(reporter);
+        JaegerEnvironment.customize(builder, serviceName);
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return builder.build();
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.apache.kafka.common.header.Headers")
+    static class KafkaPropagationConfiguration {
+
+        @Bean
+        JaegerTracerCustomizer kafkaHeadersCodecCustomizer(TracingProperties properties) {
+            return builder -> {
+                KafkaHeadersCodec codec = new KafkaHeadersCodec(properties.getPropagation().isBinaryHeaders());
+                builder.registerInjector(KafkaHeadersCodec.FORMAT, codec);
+                builder.registerExtractor(KafkaHeadersCodec.FORMAT, codec);
+            };
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "reactor.core.publisher.Mono")
+    static class ReactorConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        ReactorTracing reactorTracing(Tracer tracer) {
+            return new ReactorTracing(tracer);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = {"org.apache.kafka.common.header.Headers", "io.micrometer.core.instrument.MeterRegistry"})
+    static class LatencyConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        RecordLatencyTracker recordLatencyTracker(TracingProperties properties, ObjectProvider<MeterRegistry> registry) {
+            return new RecordLatencyTracker(registry.getIfAvailable(() -> Metrics.globalRegistry),
+                    properties.getLatency().getLogInterval());
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(name = "tracing.metrics.enabled", matchIfMissing = true)
+    static class SpanMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        SpanMetrics spanMetrics(TracingProperties properties) {
+            return new SpanMetrics(properties.getMetrics().getMaxOperations());
+        }
+
+        @Bean
+        SpanMetricsMeterBinder spanMetricsMeterBinder(SpanMetrics spanMetrics) {
+            return new SpanMetricsMeterBinder(spanMetrics);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(name = "tracing.tail-sampling.enabled", havingValue = "true")
+    static class TailSamplingMetricsConfiguration {
+
+        @Bean
+        TailSamplingMeterBinder tailSamplingMeterBinder(TailSamplingReporter tailSamplingReporter) {
+            return new TailSamplingMeterBinder(tailSamplingReporter);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(name = "tracing.log-spans", havingValue = "true")
+    static class SpanLogMetricsConfiguration {
+
+        @Bean
+        AsyncLoggingMeterBinder asyncLoggingMeterBinder(AsyncLoggingReporter asyncLoggingReporter) {
+            return new AsyncLoggingMeterBinder(asyncLoggingReporter);
+        }
+    }
+
+    private static Reporter remoteReporter(TracingProperties properties, Environment environment) {
+        if (properties.isDeferredInit()) {
+            return new DeferredReporter(() -> createRemoteReporter(properties, environment));
+        }
+        return createRemoteReporter(properties, environment);
+    }
+
+    private static Reporter createRemoteReporter(TracingProperties properties, Environment environment) {
+        TracingProperties.SenderProperties sender = properties.getSender();
+        TracingProperties.ReporterProperties reporter = properties.getReporter();
+        TracingProperties.SpoolProperties spool = properties.getSpool();
+        if (!spool.isEnabled() && reporter.getType() == TracingProperties.ReporterType.OFF_HEAP) {
+            return new OffHeapReporter(sender.getAgentHost(), sender.getAgentPort(), sender.getMaxPacketSize(),
+                    (int) reporter.getBufferSize().toBytes(), reporter.getFlushInterval());
+        }
+        UdpSender udpSender = new UdpSender(sender.getAgentHost(), sender.getAgentPort(), sender.getMaxPacketSize());
+        if (spool.isEnabled()) {
+            String serviceName = serviceName(properties, environment);
+            Path directory = spool.getDirectory() != null ? spool.getDirectory()
+                    : Paths.get(System.getProperty("java.io.tmpdir"), "gs-opentracing-spool", serviceName);
+            int segmentSize = (int) spool.getSegmentSize().toBytes();
+            SpanSpool spanSpool = new SpanSpool(directory, segmentSize, (int) (spool.getMaxSize().toBytes() / segmentSize));
+            return new SpoolingReporter(spanSpool, udpSender, serviceName, sender.getMaxPacketSize(),
+                    spool.getDrainInterval());
+        }
+        return new RemoteReporter.Builder()
+                .withSender(udpSender)
+                .withMaxQueueSize(reporter.getMaxQueueSize())
+                .withFlushInterval((int) reporter.getFlushInterval().toMillis())
+                .build();
+    }
+
+    private static String serviceName(TracingProperties properties, Environment environment) {
+        if (StringUtils.hasText(properties.getServiceName())) {
+            return properties.getServiceName();
+        }
+        return environment.getProperty("spring.application.name", "unknown-service");
+    }
+}
@@ -0,0 +1,251 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.Configuration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tuning knobs for the shared Jaeger {@link io.opentracing.Tracer}, bound from {@code tracing.*}. Where Jaeger has
+ * a {@code JAEGER_*} variable for a setting, that variable is the default and the property overrides it.
+ */
+@Data
+@ConfigurationProperties(prefix = "tracing")
+public class TracingProperties {
+    /**
+     * Service name reported to Jaeger. Falls back to {@code JAEGER_SERVICE_NAME}, then
+     * {@code spring.application.name}.
+     */
+    private String serviceName = JaegerEnvironment.get(Configuration.JAEGER_SERVICE_NAME);
+
+    /**
+     * Whether every finished span is also written to the {@code tracing.spans} log, as one line of JSON
+     * from a background thread. Defaults to {@code JAEGER_REPORTER_LOG_SPANS}.
+     */
+    private boolean logSpans = Boolean.TRUE.equals(JaegerEnvironment.reporter().getLogSpans());
+
+    /**
+     * Create the exporting reporter on a background thread instead of during the context refresh. Spans
+     * finished before it exists are queued, up to a thousand, and replayed into it.
+     */
+    private boolean deferredInit = false;
+
+    private final SamplerProperties sampler = new SamplerProperties();
+    private final ReporterProperties reporter = new ReporterProperties();
+    private final SenderProperties sender = new SenderProperties();
+    private final TailSamplingProperties tailSampling = new TailSamplingProperties();
+    private final SpoolProperties spool = new SpoolProperties();
+    private final PropagationProperties propagation = new PropagationProperties();
+    private final LatencyProperties latency = new LatencyProperties();
+    private final MetricsProperties metrics = new MetricsProperties();
+    private final SpanLogProperties spanLog = new SpanLogProperties();
+
+    public enum SamplerType {
+        CONST,
+        PROBABILISTIC,
+        RATE_LIMITING,
+        PER_OPERATION,
+        ADAPTIVE
+    }
+
+    @Data
+    public static class SamplerProperties {
+        /**
+         * Defaults to {@code JAEGER_SAMPLER_TYPE}, else CONST.
+         */
+        private SamplerType type;
+
+        /**
+         * 0/1 for CONST, a probability for PROBABILISTIC, the default probability for PER_OPERATION,
+         * traces per second for RATE_LIMITING and the target traces per second for ADAPTIVE.
+         * Defaults to {@code JAEGER_SAMPLER_PARAM}, else 1.
+         */
+        private double param;
+
+        /**
+         * PER_OPERATION probabilities keyed by root operation name, e.g. {@code consumed: 0.01}.
+         */
+        private Map<String, Double> operations = new HashMap<>();
+
+        /**
+         * How often ADAPTIVE re-derives its probability from the observed root span rate.
+         */
+        private Duration adjustInterval = Duration.ofSeconds(1);
+
+        public SamplerProperties() {
+            Configuration.SamplerConfiguration environment = JaegerEnvironment.sampler();
+            type = JaegerEnvironment.samplerType(environment.getType(), SamplerType.CONST);
+            param = environment.getParam() != null ? environment.getParam().doubleValue() : 1;
+        }
+    }
+
+    public enum ReporterType {
+        REMOTE,
+        OFF_HEAP
+    }
+
+    @Data
+    public static class ReporterProperties {
+        /**
+         * REMOTE queues finished spans on the heap; OFF_HEAP serializes them at once into a direct buffer ring.
+         * Ignored when the spool is enabled.
+         */
+        private ReporterType type = ReporterType.REMOTE;
+
+        /**
+         * Spans buffered before the REMOTE reporter starts dropping them. Defaults to
+         * {@code JAEGER_REPORTER_MAX_QUEUE_SIZE}.
+         */
+        private int maxQueueSize;
+
+        /**
+         * Size of the OFF_HEAP ring, rounded up to a power of two.
+         */
+        private DataSize bufferSize = DataSize.ofMegabytes(8);
+
+        /**
+         * Defaults to {@code JAEGER_REPORTER_FLUSH_INTERVAL}.
+         */
+        private Duration flushInterval;
+
+        public ReporterProperties() {
+            Configuration.ReporterConfiguration environment = JaegerEnvironment.reporter();
+            maxQueueSize = environment.getMaxQueueSize() != null ? environment.getMaxQueueSize() : 10000;
+            flushInterval = environment.getFlushIntervalMs() != null
+                    ? Duration.ofMillis(environment.getFlushIntervalMs()) : Duration.ofSeconds(1);
+        }
+    }
+
+    @Data
+    public static class TailSamplingProperties {
+        /**
+         * Buffer finished spans per trace and export only slow, failed and a share of the other traces.
+         * Needs a sampler that samples everything, e.g. CONST with param 1.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Share of the unremarkable traces that is exported anyway.
+         */
+        private double keepRatio = 0.05;
+
+        /**
+         * A trace is kept when any of its spans takes at least this long.
+         */
+        private Duration slowThreshold = Duration.ofSeconds(1);
+
+        /**
+         * Per operation overrides of slowThreshold, e.g. {@code saveToDb: 300ms}.
+         */
+        private Map<String, Duration> operationThresholds = new HashMap<>();
+
+        private int maxSpans = 100000;
+        private int maxTraces = 20000;
+
+        /**
+         * A trace still waiting for spans after this long is decided with the spans it has.
+         */
+        private Duration maxTraceAge = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class SpoolProperties {
+        /**
+         * Write spans to memory-mapped files first and send them to the agent from a background thread. Spans
+         * stay spooled while sends fail; UDP confirms no delivery, so those sent to an agent that is down but
+         * not yet reported unreachable are lost.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Defaults to {@code ${java.io.tmpdir}/gs-opentracing-spool/<service name>}.
+         */
+        private Path directory;
+
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+
+        /**
+         * Cap of the spool on disk; beyond it the oldest segment is deleted, sent or not.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+
+        private Duration drainInterval = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class SenderProperties {
+        /**
+         * Defaults to {@code JAEGER_AGENT_HOST}.
+         */
+        private String agentHost;
+
+        /**
+         * Defaults to {@code JAEGER_AGENT_PORT}.
+         */
+        private int agentPort;
+
+        /**
+         * Upper bound of one UDP datagram; spans are batched until it is full or the reporter flushes.
+         */
+        private int maxPacketSize = 65000;
+
+        public SenderProperties() {
+            Configuration.SenderConfiguration environment = JaegerEnvironment.sender();
+            agentHost = environment.getAgentHost() != null ? environment.getAgentHost() : "localhost";
+            agentPort = environment.getAgentPort() != null ? environment.getAgentPort() : 6831;
+        }
+    }
+
+    @Data
+    public static class PropagationProperties {
+        /**
+         * Parse and write {@code uber-trace-id} with the single-pass codec instead of Jaeger's split-based one.
+         */
+        private boolean fastCodec = true;
+
+        /**
+         * Inject the span context into Kafka headers as the binary {@code uber-trace-id-bin} header.
+         * Not readable by the Node.js consumer.
+         */
+        private boolean binaryHeaders = false;
+    }
+
+    @Data
+    public static class LatencyProperties {
+        /**
+         * How often the record latency percentiles are written to the log; zero disables the summary.
+         */
+        private Duration logInterval = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class MetricsProperties {
+        /**
+         * Count and time every finished span, sampled or not, per operation name and publish it to Micrometer.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Distinct operation names tracked before further ones are counted as {@code other}.
+         */
+        private int maxOperations = 200;
+    }
+
+    @Data
+    public static class SpanLogProperties {
+        /**
+         * Ring of rendered log lines waiting for the writer thread, rounded up to a power of two.
+         */
+        private DataSize bufferSize = DataSize.ofMegabytes(1);
+
+        /**
+         * Spans logged per second at most, the rest are counted only; zero or less logs every span.
+         */
+        private double maxPerSecond = 1000;
+    }
+}
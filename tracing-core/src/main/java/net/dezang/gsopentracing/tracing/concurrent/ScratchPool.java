@@ -0,0 +1,43 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of scratch objects, such as encoders and their buffers, that are too costly to create per
+ * span. A {@code ThreadLocal} would keep one per thread, which with virtual threads means one per task;
+ * here the number kept is bounded by {@code capacity} and a caller that finds the pool empty creates a new
+ * object, which is dropped on {@link #release} when the pool is full again.
+ */
+public final class ScratchPool<T> {
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> factory;
+
+    public ScratchPool(int capacity, Supplier<T> factory) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+    }
+
+    /**
+     * One per processor, the most threads that can use them at the same time without being descheduled.
+     */
+    public static <T> ScratchPool<T> perProcessor(Supplier<T> factory) {
+        return new ScratchPool<>(Runtime.getRuntime().availableProcessors(), factory);
+    }
+
+    public T take() {
+        T scratch = idle.poll();
+        return scratch != null ? scratch : factory.get();
+    }
+
+    /**
+     * Hands back an object taken from this pool; the caller must not use it afterwards.
+     */
+    public void release(T scratch) {
+        idle.offer(scratch);
+    }
+
+    int idle() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,65 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task under the span that was active on the submitting thread. {@code ThreadLocalScopeManager}
+ * scopes belong to one thread, and a new thread, virtual or not, starts without any; a span that should be
+ * the parent of the task's spans has to be activated again where the task runs. The scope is closed before
+ * the task's thread finishes, so nothing is left in the thread's locals.
+ */
+public class TracedExecutorService extends AbstractExecutorService {
+    private final Tracer tracer;
+    private final ExecutorService delegate;
+
+    public TracedExecutorService(Tracer tracer, ExecutorService delegate) {
+        this.tracer = tracer;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Span span = tracer.activeSpan();
+        if (span == null) {
+            delegate.execute(task);
+            return;
+        }
+        delegate.execute(() -> {
+            try (Scope ignored = tracer.scopeManager().activate(span)) {
+                task.run();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,96 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads for code compiled for Java 11: {@code Thread.ofVirtual()} and
+ * {@code Executors.newThreadPerTaskExecutor} are looked up once by reflection and only work on Java 21 or
+ * later. On older runtimes, and on 19/20 without {@code --enable-preview}, {@link #isSupported()} is false and
+ * {@code spring.threads.virtual.enabled} falls back to platform threads, see {@link #enabled}.
+ */
+public final class VirtualThreads {
+    private static final MethodHandle OF_VIRTUAL;
+    private static final MethodHandle NAME;
+    private static final MethodHandle FACTORY;
+    private static final MethodHandle NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final boolean SUPPORTED;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        MethodHandle newThreadPerTaskExecutor = null;
+        boolean supported;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual",
+                    MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class, long.class));
+            factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+            newThreadPerTaskExecutor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+            // preview builds resolve the methods but refuse to create threads
+            factory.invoke(ofVirtual.invoke());
+            supported = true;
+        } catch (Throwable e) {
+            supported = false;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        SUPPORTED = supported;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Whether to use virtual threads given {@code spring.threads.virtual.enabled}: only when requested and
+     * supported, otherwise the caller keeps its platform thread pool. {@link VirtualThreadsAutoConfiguration}
+     * logs the fallback.
+     */
+    public static boolean enabled(boolean requested) {
+        return requested && SUPPORTED;
+    }
+
+    /**
+     * Factory of virtual threads named {@code namePrefix0}, {@code namePrefix1}, ...
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        checkSupported();
+        try {
+            return (ThreadFactory) FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(), namePrefix, 0L));
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot create a virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Starts a new virtual thread for every task; nothing is pooled and there is no queue.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = factory(namePrefix);
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(factory);
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot create a virtual thread executor", e);
+        }
+    }
+
+    private static void checkSupported() {
+        if (!SUPPORTED) {
+            throw new IllegalStateException("virtual threads need Java 21 or later, running on " + Runtime.version());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.kafka.config.AbstractKafkaListenerContainerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+/**
+ * {@code spring.threads.virtual.enabled=true} (the Spring Boot 3.2 property) runs Tomcat request handling and
+ * the Kafka listener containers on virtual threads. On a runtime without them a warning is logged and
+ * everything stays on platform threads, as do the apps' own pools, see {@link VirtualThreads#enabled}.
+ * <p>
+ * Scopes stay on {@code ThreadLocalScopeManager}: a listener invocation or request is handled start to end
+ * on one virtual thread, so its scopes behave as on a platform thread. Work handed to another thread needs
+ * its span carried over, see {@link TracedExecutorService}.
+ */
+@Configuration(proxyBeanMethods = false)
+@Conditional(VirtualThreadsAutoConfiguration.OnVirtualThreadsCondition.class)
+public class VirtualThreadsAutoConfiguration {
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.apache.catalina.startup.Tomcat")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    static class TomcatConfiguration {
+
+        // replaces the bounded worker pool, server.tomcat.max-connections is the remaining limit
+        @Bean
+        WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsTomcatCustomizer() {
+            return factory -> factory.addProtocolHandlerCustomizers(
+                    handler -> handler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-")));
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.kafka.config.AbstractKafkaListenerContainerFactory")
+    static class KafkaListenerConfiguration {
+
+        @Bean
+        static BeanPostProcessor virtualThreadsListenerContainerPostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof AbstractKafkaListenerContainerFactory) {
+                        ContainerProperties containerProperties =
+                                ((AbstractKafkaListenerContainerFactory<?, ?, ?>) bean).getContainerProperties();
+                        if (containerProperties.getConsumerTaskExecutor() == null) {
+                            containerProperties.setConsumerTaskExecutor(new ConcurrentTaskExecutor(
+                                    VirtualThreads.newThreadPerTaskExecutor(beanName + "-C-")));
+                        }
+                    }
+                    return bean;
+                }
+            };
+        }
+    }
+
+    @Log4j2
+    static class OnVirtualThreadsCondition extends SpringBootCondition {
+
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            if (!context.getEnvironment().getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+                return ConditionOutcome.noMatch("spring.threads.virtual.enabled is not set");
+            }
+            if (!VirtualThreads.isSupported()) {
+                log.warn("spring.threads.virtual.enabled is set, but Java {} has no virtual threads; "
+                        + "staying on platform threads", Runtime.version());
+                return ConditionOutcome.noMatch("no virtual threads on Java " + Runtime.version());
+            }
+            return ConditionOutcome.match("virtual threads enabled");
+        }
+    }
+}
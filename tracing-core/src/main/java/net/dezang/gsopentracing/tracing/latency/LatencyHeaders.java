@@ -0,0 +1,59 @@
+package net.dezang.gsopentracing.tracing.latency;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * Wall clock timestamps carried in Kafka headers as 8-byte big-endian epoch millis.
+ * <p>
+ * {@value #ORIGIN_TIMESTAMP_KEY} is written by the first producer of a record and travels unchanged through
+ * every hop; {@value #SEND_TIMESTAMP_KEY} is rewritten by each producer. Both come from different hosts'
+ * clocks than the reader's, so small negative latencies are read as zero.
+ */
+public final class LatencyHeaders {
+    public static final String ORIGIN_TIMESTAMP_KEY = "origin-timestamp";
+    public static final String SEND_TIMESTAMP_KEY = "send-timestamp";
+
+    static final long MISSING = -1;
+
+    private LatencyHeaders() {
+    }
+
+    public static long originTimestamp(Headers headers) {
+        return read(headers, ORIGIN_TIMESTAMP_KEY);
+    }
+
+    public static long sendTimestamp(Headers headers) {
+        return read(headers, SEND_TIMESTAMP_KEY);
+    }
+
+    static void stamp(Headers headers, long now) {
+        byte[] timestamp = encode(now);
+        if (headers.lastHeader(ORIGIN_TIMESTAMP_KEY) == null) {
+            headers.add(ORIGIN_TIMESTAMP_KEY, timestamp);
+        }
+        headers.remove(SEND_TIMESTAMP_KEY);
+        headers.add(SEND_TIMESTAMP_KEY, timestamp);
+    }
+
+    static byte[] encode(long timestamp) {
+        byte[] out = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            out[i] = (byte) timestamp;
+            timestamp >>>= 8;
+        }
+        return out;
+    }
+
+    private static long read(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        if (header == null || header.value() == null || header.value().length != Long.BYTES) {
+            return MISSING;
+        }
+        long timestamp = 0;
+        for (byte b : header.value()) {
+            timestamp = (timestamp << 8) | (b & 0xff);
+        }
+        return timestamp;
+    }
+}
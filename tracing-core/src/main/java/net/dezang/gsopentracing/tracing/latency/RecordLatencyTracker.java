@@ -0,0 +1,125 @@
+package net.dezang.gsopentracing.tracing.latency;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.common.header.Headers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long consumed records took to get here, per topic and partition, from the {@link LatencyHeaders}
+ * stamped by {@link SendTimestampInterceptor}:
+ * <ul>
+ *     <li>{@value #HOP_METER}: since the upstream producer sent the record, on arrival</li>
+ *     <li>{@value #END_TO_END_METER}: since the first producer of the topology sent it, on arrival
+ *     ({@code stage=received}) and once the local work is done ({@code stage=processed})</li>
+ * </ul>
+ * The timers keep lock-free HdrHistogram recorders, so recording from many consumer threads does not contend.
+ * p50/p99/p999 are published as Micrometer gauges and, every {@code tracing.latency.log-interval}, logged.
+ */
+@Log4j2
+public class RecordLatencyTracker implements AutoCloseable {
+    public static final String HOP_METER = "kafka.record.latency.hop";
+    public static final String END_TO_END_METER = "kafka.record.latency.end-to-end";
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final MeterRegistry registry;
+    private final Map<String, Map<Integer, PartitionTimers>> timers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService summaryLogger;
+
+    public RecordLatencyTracker(MeterRegistry registry, Duration logInterval) {
+        this.registry = registry;
+        if (logInterval.isZero() || logInterval.isNegative()) {
+            this.summaryLogger = null;
+        } else {
+            this.summaryLogger = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("latency-summary").setDaemon(true).build());
+            long interval = logInterval.toMillis();
+            summaryLogger.scheduleAtFixedRate(this::logSummary, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void received(String topic, int partition, Headers headers) {
+        long now = System.currentTimeMillis();
+        PartitionTimers partitionTimers = timers(topic, partition);
+        record(partitionTimers.hop, now, LatencyHeaders.sendTimestamp(headers));
+        record(partitionTimers.receivedEndToEnd, now, LatencyHeaders.originTimestamp(headers));
+    }
+
+    public void processed(String topic, int partition, Headers headers) {
+        record(timers(topic, partition).processedEndToEnd, System.currentTimeMillis(),
+                LatencyHeaders.originTimestamp(headers));
+    }
+
+    private static void record(Timer timer, long now, long timestamp) {
+        if (timestamp != LatencyHeaders.MISSING) {
+            timer.record(Math.max(0, now - timestamp), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private PartitionTimers timers(String topic, int partition) {
+        return timers.computeIfAbsent(topic, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(partition, p -> new PartitionTimers(topic, p));
+    }
+
+    void logSummary() {
+        timers.forEach((topic, partitions) -> partitions.forEach((partition, partitionTimers) -> {
+            log(HOP_METER, topic, partition, partitionTimers.hop);
+            log(END_TO_END_METER + "[received]", topic, partition, partitionTimers.receivedEndToEnd);
+            log(END_TO_END_METER + "[processed]", topic, partition, partitionTimers.processedEndToEnd);
+        }));
+    }
+
+    private static void log(String name, String topic, int partition, Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        if (snapshot.count() == 0) {
+            return;
+        }
+        StringBuilder percentiles = new StringBuilder();
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            percentiles.append(" p").append(value.percentile() * 100)
+                    .append('=').append(Math.round(value.value(TimeUnit.MILLISECONDS))).append("ms");
+        }
+        log.info("{} {}-{} count={} mean={}ms{} max={}ms", name, topic, partition, snapshot.count(),
+                Math.round(snapshot.mean(TimeUnit.MILLISECONDS)), percentiles,
+                Math.round(snapshot.max(TimeUnit.MILLISECONDS)));
+    }
+
+    @Override
+    public void close() {
+        if (summaryLogger != null) {
+            summaryLogger.shutdownNow();
+        }
+    }
+
+    private final class PartitionTimers {
+        private final Timer hop;
+        private final Timer receivedEndToEnd;
+        private final Timer processedEndToEnd;
+
+        private PartitionTimers(String topic, int partition) {
+            hop = timer(HOP_METER, topic, partition, "received");
+            receivedEndToEnd = timer(END_TO_END_METER, topic, partition, "received");
+            processedEndToEnd = timer(END_TO_END_METER, topic, partition, "processed");
+        }
+
+        private Timer timer(String name, String topic, int partition, String stage) {
+            return Timer.builder(name)
+                    .tag("topic", topic)
+                    .tag("partition", String.valueOf(partition))
+                    .tag("stage", stage)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.dezang.gsopentracing.tracing.latency;
+
+import org.apache.kafka.clients.producer.ProducerInterceptor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.util.Map;
+
+/**
+ * Stamps the {@link LatencyHeaders} of every record a producer sends. Registered through the producer's
+ * {@code interceptor.classes}, so it also covers producers the apps do not build themselves, such as the
+ * Kafka Streams one ({@code producer.interceptor.classes}).
+ */
+public class SendTimestampInterceptor implements ProducerInterceptor<Object, Object> {
+
+    @Override
+    public ProducerRecord<Object, Object> onSend(ProducerRecord<Object, Object> record) {
+        LatencyHeaders.stamp(record.headers(), System.currentTimeMillis());
+        return record;
+    }
+
+    @Override
+    public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+    }
+}
@@ -0,0 +1,159 @@
+package net.dezang.gsopentracing.tracing.metrics;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+import net.dezang.gsopentracing.tracing.SpanObserver;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Rate, errors and duration per operation name, fed by every finished span whether it is sampled or not.
+ * <p>
+ * Recording a span is a map lookup with the span's own operation name and a handful of {@link LongAdder}
+ * increments, one of them into a fixed duration bucket; nothing is allocated once an operation has been seen.
+ * Operations beyond {@code maxOperations} are counted under {@value #OTHER_OPERATION} so that generated
+ * operation names cannot grow the map without bound.
+ * <p>
+ * The max is kept in a {@link TimeWindowMax} like a Micrometer timer's: it covers the last
+ * {@code MAX_EXPIRY}, so a single slow span stops showing after two minutes.
+ */
+public class SpanMetrics implements SpanObserver {
+    public static final String OTHER_OPERATION = "other";
+
+    /**
+     * Upper bounds of the duration buckets, in microseconds; the last bucket is unbounded.
+     */
+    static final long[] BUCKET_BOUNDS_MICROS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+
+    private static final Duration MAX_EXPIRY = Duration.ofMinutes(2);
+    private static final int MAX_BUFFER_LENGTH = 3;
+
+    private final int maxOperations;
+    private final Clock clock;
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final OperationStats other;
+    private final List<BiConsumer<String, OperationStats>> listeners = new CopyOnWriteArrayList<>();
+
+    public SpanMetrics(int maxOperations) {
+        this(maxOperations, Clock.SYSTEM);
+    }
+
+    SpanMetrics(int maxOperations, Clock clock) {
+        this.maxOperations = maxOperations;
+        this.clock = clock;
+        this.other = new OperationStats(OTHER_OPERATION, clock);
+    }
+
+    @Override
+    public void onFinish(JaegerSpan span, boolean error) {
+        record(span.getOperationName(), span.getDuration(), error);
+    }
+
+    public void record(String operationName, long durationMicros, boolean error) {
+        stats(operationName).record(durationMicros, error);
+    }
+
+    public OperationStats stats(String operationName) {
+        OperationStats stats = operations.get(operationName);
+        if (stats != null) {
+            return stats;
+        }
+        if (operations.size() >= maxOperations) {
+            return other;
+        }
+        return operations.computeIfAbsent(operationName, name -> {
+            OperationStats created = new OperationStats(name, clock);
+            // under the lock a listener being added either sees the operation in the map or is called here
+            synchronized (listeners) {
+                listeners.forEach(listener -> listener.accept(name, created));
+            }
+            return created;
+        });
+    }
+
+    /**
+     * Calls {@code listener} for every operation seen so far (and {@value #OTHER_OPERATION}) and for each new one.
+     * Each call adds a listener, e.g. one per meter registry.
+     */
+    void forEachOperation(BiConsumer<String, OperationStats> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+            listener.accept(OTHER_OPERATION, other);
+            operations.forEach(listener);
+        }
+    }
+
+    public static class OperationStats {
+        private final String operationName;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final TimeWindowMax maxMicros;
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+
+        OperationStats(String operationName, Clock clock) {
+            this.operationName = operationName;
+            this.maxMicros = new TimeWindowMax(clock, MAX_EXPIRY.toMillis() / MAX_BUFFER_LENGTH, MAX_BUFFER_LENGTH);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationMicros, boolean error) {
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalMicros.add(durationMicros);
+            maxMicros.record(durationMicros, TimeUnit.MICROSECONDS);
+            int bucket = Arrays.binarySearch(BUCKET_BOUNDS_MICROS, durationMicros);
+            buckets[bucket < 0 ? -bucket - 1 : bucket].increment();
+        }
+
+        public String getOperationName() {
+            return operationName;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public double getTotalTime(TimeUnit unit) {
+            return totalMicros.sum() / (double) unit.toMicros(1);
+        }
+
+        /**
+         * Longest span of the last two minutes.
+         */
+        public double getMax(TimeUnit unit) {
+            return maxMicros.poll(unit);
+        }
+
+        /**
+         * Spans that took at most {@code BUCKET_BOUNDS_MICROS[bucket]}, i.e. the cumulative count of the bucket.
+         */
+        public long getCumulativeCount(int bucket) {
+            long sum = 0;
+            for (int i = 0; i <= bucket; i++) {
+                sum += buckets[i].sum();
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.dezang.gsopentracing.tracing.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link SpanMetrics} per {@code operation}: {@value #SPANS} (count and total time),
+ * {@value #ERRORS}, {@value #MAX} and the cumulative {@value #BUCKETS} counters tagged with their upper
+ * bound {@code le} in seconds. Meters read the adders when scraped; nothing is pushed per span. The max
+ * covers the last two minutes, as a Micrometer timer's does.
+ */
+public class SpanMetricsMeterBinder implements MeterBinder {
+    static final String SPANS = "tracing.spans";
+    static final String ERRORS = "tracing.spans.errors";
+    static final String MAX = "tracing.spans.max";
+    static final String BUCKETS = "tracing.spans.duration.buckets";
+
+    private final SpanMetrics metrics;
+
+    public SpanMetricsMeterBinder(SpanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        metrics.forEachOperation((operation, stats) -> {
+            FunctionTimer.builder(SPANS, stats, SpanMetrics.OperationStats::getCount,
+                    s -> s.getTotalTime(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS)
+                    .tag("operation", operation)
+                    .register(registry);
+            FunctionCounter.builder(ERRORS, stats, s -> s.getErrors())
+                    .tag("operation", operation)
+                    .register(registry);
+            Gauge.builder(MAX, stats, s -> s.getMax(TimeUnit.SECONDS))
+                    .tag("operation", operation)
+                    .baseUnit("seconds")
+                    .register(registry);
+            for (int i = 0; i <= SpanMetrics.BUCKET_BOUNDS_MICROS.length; i++) {
+                int bucket = i;
+                String le = bucket == SpanMetrics.BUCKET_BOUNDS_MICROS.length
+                        ? "+Inf" : String.valueOf(SpanMetrics.BUCKET_BOUNDS_MICROS[bucket] / 1e6);
+                FunctionCounter.builder(BUCKETS, stats, s -> s.getCumulativeCount(bucket))
+                        .tag("operation", operation)
+                        .tag("le", le)
+                        .register(registry);
+            }
+        });
+    }
+}
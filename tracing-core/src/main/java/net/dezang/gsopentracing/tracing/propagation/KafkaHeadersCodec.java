@@ -0,0 +1,92 @@
+package net.dezang.gsopentracing.tracing.propagation;
+
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.spi.Codec;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the span context directly on Kafka record {@link Headers}, decoding the header value
+ * bytes without building a String per header. Registered on the tracer for {@link #FORMAT}:
+ * <pre>
+ * SpanContext parent = tracer.extract(KafkaHeadersCodec.FORMAT, record.headers());
+ * </pre>
+ * Extraction understands both the text {@code uber-trace-id} and the binary {@code uber-trace-id-bin}
+ * header. Injection writes the text header unless binary headers are enabled; the Node.js consumer only
+ * reads the text header, so leave binary off while it is deployed.
+ */
+public class KafkaHeadersCodec implements Codec<Headers> {
+    public static final Format<Headers> FORMAT = new Format<>() {
+        @Override
+        public String toString() {
+            return "KafkaHeadersCodec.FORMAT";
+        }
+    };
+
+    private final boolean binary;
+    private final TextMapUberTraceIdCodec fallback = new TextMapUberTraceIdCodec();
+
+    public KafkaHeadersCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void inject(JaegerSpanContext spanContext, Headers carrier) {
+        carrier.remove(UberTraceIdCodec.TRACE_ID_KEY);
+        carrier.remove(UberTraceIdCodec.BINARY_TRACE_ID_KEY);
+        if (binary) {
+            carrier.add(UberTraceIdCodec.BINARY_TRACE_ID_KEY, UberTraceIdCodec.encodeBinary(spanContext));
+        } else {
+            carrier.add(UberTraceIdCodec.TRACE_ID_KEY, UberTraceIdCodec.encode(spanContext));
+        }
+        for (Map.Entry<String, String> baggage : spanContext.baggageItems()) {
+            carrier.add(UberTraceIdCodec.BAGGAGE_PREFIX + baggage.getKey(),
+                    baggage.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * As with {@code TracingKafkaUtils.extractSpanContext}, the last trace header of the record wins.
+     */
+    @Override
+    public JaegerSpanContext extract(Headers carrier) {
+        JaegerSpanContext context = null;
+        Map<String, String> baggage = null;
+        for (Header header : carrier) {
+            String key = header.key();
+            if (UberTraceIdCodec.TRACE_ID_KEY.equals(key)) {
+                context = UberTraceIdCodec.decode(header.value());
+            } else if (UberTraceIdCodec.BINARY_TRACE_ID_KEY.equals(key)) {
+                context = UberTraceIdCodec.decodeBinary(header.value());
+            } else if (key.startsWith(UberTraceIdCodec.BAGGAGE_PREFIX) && header.value() != null) {
+                if (baggage == null) {
+                    baggage = new HashMap<>();
+                }
+                baggage.put(key.substring(UberTraceIdCodec.BAGGAGE_PREFIX.length()),
+                        new String(header.value(), StandardCharsets.UTF_8));
+            } else if (UberTraceIdCodec.DEBUG_ID_KEY.equals(key)) {
+                return fallback.extract(new TextMapAdapter(toMap(carrier)));
+            }
+        }
+        if (context != null && baggage != null) {
+            return context.withBaggage(baggage);
+        }
+        return context;
+    }
+
+    private static Map<String, String> toMap(Headers headers) {
+        Map<String, String> map = new HashMap<>();
+        for (Header header : headers) {
+            if (header.value() != null) {
+                map.put(header.key(), new String(header.value(), StandardCharsets.UTF_8));
+            }
+        }
+        return map;
+    }
+}
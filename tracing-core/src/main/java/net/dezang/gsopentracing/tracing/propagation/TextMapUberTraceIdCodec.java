@@ -0,0 +1,50 @@
+package net.dezang.gsopentracing.tracing.propagation;
+
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.propagation.TextMapCodec;
+import io.jaegertracing.spi.Codec;
+import io.opentracing.propagation.TextMap;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link TextMap} codec for {@code Format.Builtin.TEXT_MAP} that parses {@code uber-trace-id} with
+ * {@link UberTraceIdCodec} instead of splitting the string. Carriers holding a {@code jaeger-debug-id} are
+ * rare and handed to Jaeger's own {@link TextMapCodec}.
+ */
+public class TextMapUberTraceIdCodec implements Codec<TextMap> {
+    private final TextMapCodec fallback = TextMapCodec.builder().withUrlEncoding(false).build();
+
+    @Override
+    public void inject(JaegerSpanContext spanContext, TextMap carrier) {
+        carrier.put(UberTraceIdCodec.TRACE_ID_KEY, UberTraceIdCodec.encodeToString(spanContext));
+        for (Map.Entry<String, String> baggage : spanContext.baggageItems()) {
+            carrier.put(UberTraceIdCodec.BAGGAGE_PREFIX + baggage.getKey(), baggage.getValue());
+        }
+    }
+
+    @Override
+    public JaegerSpanContext extract(TextMap carrier) {
+        JaegerSpanContext context = null;
+        Map<String, String> baggage = null;
+        for (Map.Entry<String, String> entry : carrier) {
+            String key = entry.getKey();
+            if (key.equalsIgnoreCase(UberTraceIdCodec.TRACE_ID_KEY)) {
+                context = UberTraceIdCodec.decode(entry.getValue());
+            } else if (key.regionMatches(true, 0, UberTraceIdCodec.BAGGAGE_PREFIX, 0, UberTraceIdCodec.BAGGAGE_PREFIX.length())) {
+                if (baggage == null) {
+                    baggage = new HashMap<>();
+                }
+                baggage.put(key.substring(UberTraceIdCodec.BAGGAGE_PREFIX.length()).toLowerCase(Locale.ROOT), entry.getValue());
+            } else if (key.equalsIgnoreCase(UberTraceIdCodec.DEBUG_ID_KEY)) {
+                return fallback.extract(carrier);
+            }
+        }
+        if (context != null && baggage != null) {
+            return context.withBaggage(baggage);
+        }
+        return context;
+    }
+}
@@ -0,0 +1,178 @@
+package net.dezang.gsopentracing.tracing.propagation;
+
+import io.jaegertracing.internal.JaegerSpanContext;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses and writes the Jaeger {@code traceId:spanId:parentId:flags} context in a single pass, straight from
+ * and into the header bytes. No split, no substring, no boxed hex parsing.
+ * <p>
+ * Ids are accepted with or without leading zeros (the Node.js client strips them, the Java client may pad
+ * them), and trace ids may be 64 or 128 bits. Trace and span ids are written zero-padded, a missing parent
+ * as {@code 0}, which both clients read back. A value that does not parse yields {@code null}, meaning
+ * "no parent", rather than an exception on the consumer thread.
+ * <p>
+ * The opt-in binary form is {@value #BINARY_LENGTH} bytes: a version byte, trace id high and low, span id,
+ * parent id (big-endian longs) and the flags byte.
+ */
+public final class UberTraceIdCodec {
+    public static final String TRACE_ID_KEY = "uber-trace-id";
+    public static final String BINARY_TRACE_ID_KEY = "uber-trace-id-bin";
+    public static final String BAGGAGE_PREFIX = "uberctx-";
+    public static final String DEBUG_ID_KEY = "jaeger-debug-id";
+
+    static final int BINARY_LENGTH = 34;
+    private static final byte BINARY_VERSION = 0;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private UberTraceIdCodec() {
+    }
+
+    public static JaegerSpanContext decode(byte[] value) {
+        return value == null ? null : parse(value, null, value.length);
+    }
+
+    public static JaegerSpanContext decode(CharSequence value) {
+        return value == null ? null : parse(null, value, value.length());
+    }
+
+    public static byte[] encode(JaegerSpanContext context) {
+        boolean wideTraceId = context.getTraceIdHigh() != 0;
+        long parentId = context.getParentId();
+        int flags = context.getFlags() & 0xff;
+        int length = (wideTraceId ? 32 : 16) + 1 + 16 + 1 + (parentId == 0 ? 1 : 16) + 1 + (flags > 0xf ? 2 : 1);
+        byte[] out = new byte[length];
+        int pos = 0;
+        if (wideTraceId) {
+            pos = writeHex(out, pos, context.getTraceIdHigh(), 16);
+        }
+        pos = writeHex(out, pos, context.getTraceIdLow(), 16);
+        out[pos++] = ':';
+        pos = writeHex(out, pos, context.getSpanId(), 16);
+        out[pos++] = ':';
+        pos = writeHex(out, pos, parentId, parentId == 0 ? 1 : 16);
+        out[pos++] = ':';
+        writeHex(out, pos, flags, flags > 0xf ? 2 : 1);
+        return out;
+    }
+
+    public static String encodeToString(JaegerSpanContext context) {
+        return new String(encode(context), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encodeBinary(JaegerSpanContext context) {
+        byte[] out = new byte[BINARY_LENGTH];
+        out[0] = BINARY_VERSION;
+        writeLong(out, 1, context.getTraceIdHigh());
+        writeLong(out, 9, context.getTraceIdLow());
+        writeLong(out, 17, context.getSpanId());
+        writeLong(out, 25, context.getParentId());
+        out[33] = context.getFlags();
+        return out;
+    }
+
+    public static JaegerSpanContext decodeBinary(byte[] value) {
+        if (value == null || value.length != BINARY_LENGTH || value[0] != BINARY_VERSION) {
+            return null;
+        }
+        long traceIdHigh = readLong(value, 1);
+        long traceIdLow = readLong(value, 9);
+        long spanId = readLong(value, 17);
+        if ((traceIdHigh == 0 && traceIdLow == 0) || spanId == 0) {
+            return null;
+        }
+        return new JaegerSpanContext(traceIdHigh, traceIdLow, spanId, readLong(value, 25), value[33]);
+    }
+
+    // exactly one of bytes and chars is non-null; a single loop serves both carriers
+    private static JaegerSpanContext parse(byte[] bytes, CharSequence chars, int length) {
+        long traceIdHigh = 0;
+        long traceIdLow = 0;
+        long spanId = 0;
+        long parentId = 0;
+        long flags = 0;
+        int field = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            int c = bytes != null ? bytes[i] : chars.charAt(i);
+            if (c == ':') {
+                if (digits == 0 || ++field > 3) {
+                    return null;
+                }
+                digits = 0;
+                continue;
+            }
+            int digit = hexDigit(c);
+            if (digit < 0) {
+                return null;
+            }
+            digits++;
+            switch (field) {
+                case 0:
+                    if (digits > 32) {
+                        return null;
+                    }
+                    traceIdHigh = (traceIdHigh << 4) | (traceIdLow >>> 60);
+                    traceIdLow = (traceIdLow << 4) | digit;
+                    break;
+                case 1:
+                    if (digits > 16) {
+                        return null;
+                    }
+                    spanId = (spanId << 4) | digit;
+                    break;
+                case 2:
+                    if (digits > 16) {
+                        return null;
+                    }
+                    parentId = (parentId << 4) | digit;
+                    break;
+                default:
+                    if (digits > 8) {
+                        return null;
+                    }
+                    flags = (flags << 4) | digit;
+            }
+        }
+        if (field != 3 || digits == 0 || (traceIdHigh == 0 && traceIdLow == 0) || spanId == 0) {
+            return null;
+        }
+        return new JaegerSpanContext(traceIdHigh, traceIdLow, spanId, parentId, (byte) flags);
+    }
+
+    private static int hexDigit(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static int writeHex(byte[] out, int pos, long value, int width) {
+        for (int shift = (width - 1) * 4; shift >= 0; shift -= 4) {
+            out[pos++] = HEX[(int) (value >>> shift) & 0xf];
+        }
+        return pos;
+    }
+
+    private static void writeLong(byte[] out, int pos, long value) {
+        for (int i = 7; i >= 0; i--) {
+            out[pos + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] in, int pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (in[pos + i] & 0xff);
+        }
+        return value;
+    }
+}
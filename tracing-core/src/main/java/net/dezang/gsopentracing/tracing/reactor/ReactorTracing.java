@@ -0,0 +1,62 @@
+package net.dezang.gsopentracing.tracing.reactor;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.log.Fields;
+import io.opentracing.tag.Tags;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Spans for Reactor pipelines. The current span travels in the subscriber {@link Context} under
+ * {@link #SPAN_KEY} instead of a {@code ThreadLocalScopeManager} scope, which would be left behind on whatever
+ * thread a pipeline happened to run when it switches schedulers. Nothing is activated on a thread; code that
+ * needs the parent reads it with {@link #currentSpan()}.
+ */
+public class ReactorTracing {
+    public static final Class<Span> SPAN_KEY = Span.class;
+
+    private final Tracer tracer;
+
+    public ReactorTracing(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * The span of the subscriber context, empty outside {@link #traced}.
+     */
+    public Mono<Span> currentSpan() {
+        return Mono.subscriberContext().flatMap(context -> Mono.justOrEmpty(context.<Span>getOrEmpty(SPAN_KEY)));
+    }
+
+    /**
+     * Starts {@code operationName} on subscription, as a child of the context's span if there is one, and
+     * finishes it when {@code body} completes, fails or is cancelled. {@code body} and everything it
+     * subscribes to sees the new span as the context's span. Failures are tagged and logged on the span.
+     */
+    public <T> Mono<T> traced(String operationName, UnaryOperator<Tracer.SpanBuilder> customizer,
+                              Function<Span, Mono<T>> body) {
+        return Mono.subscriberContext().flatMap(context -> {
+            Tracer.SpanBuilder builder = tracer.buildSpan(operationName);
+            context.<Span>getOrEmpty(SPAN_KEY).ifPresent(builder::asChildOf);
+            Span span = customizer.apply(builder).start();
+            Mono<T> result;
+            try {
+                result = body.apply(span);
+            } catch (RuntimeException e) {
+                result = Mono.error(e);
+            }
+            return result
+                    .doOnError(error -> {
+                        Tags.ERROR.set(span, true);
+                        span.log(Map.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, error));
+                    })
+                    .doFinally(signal -> span.finish())
+                    .subscriberContext(inner -> inner.put(SPAN_KEY, span));
+        });
+    }
+}
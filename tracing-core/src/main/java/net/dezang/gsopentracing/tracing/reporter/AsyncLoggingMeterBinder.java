@@ -0,0 +1,32 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes how many spans {@link AsyncLoggingReporter} logged and why it skipped the others.
+ */
+public class AsyncLoggingMeterBinder implements MeterBinder {
+    private final AsyncLoggingReporter reporter;
+
+    public AsyncLoggingMeterBinder(AsyncLoggingReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        counter(registry, "logged", reporter.logged);
+        counter(registry, "rate-limited", reporter.rateLimited);
+        counter(registry, "buffer-full", reporter.bufferFull);
+        counter(registry, "too-large", reporter.tooLarge);
+    }
+
+    private static void counter(MeterRegistry registry, String result, LongAdder adder) {
+        FunctionCounter.builder("tracing.span.log", adder, LongAdder::sum)
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,200 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.tag.Tags;
+import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.concurrent.ScratchPool;
+import net.dezang.gsopentracing.tracing.sampler.TokenBucket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replacement for Jaeger's {@code LoggingReporter}, which formats and writes a log line on the thread that
+ * finishes the span. Here the finishing thread only renders the span as one line of compact JSON into a
+ * pooled buffer and copies it into an {@link OffHeapRingBuffer}; one writer thread takes the
+ * lines out and logs them to the {@value #LOGGER} logger, so appender locks and disk I/O stay on that thread.
+ * <pre>
+ * {"service":"app-consumer","traceId":"5b1f09a2c4d37e6f","spanId":"9c2e5d0b7a113f84",
+ *  "parentId":"41d0e8c6b2f95a17","operation":"consumed","start":1602835200123456,"duration":250312,
+ *  "error":false,"tags":{"span.kind":"client"},"logs":0}
+ * </pre>
+ * {@code start} is in epoch microseconds, {@code duration} in microseconds.
+ * <p>
+ * At most {@code maxPerSecond} spans are logged, with bursts of up to one second's worth. Spans over the
+ * rate, spans that find the ring full and spans whose line does not fit {@value #MAX_LINE_BYTES} bytes are
+ * not logged but counted.
+ */
+@Log4j2
+public class AsyncLoggingReporter implements Reporter {
+    public static final String LOGGER = "tracing.spans";
+
+    private static final int MAX_LINE_BYTES = 16 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger spanLog = LogManager.getLogger(LOGGER);
+    private final OffHeapRingBuffer ring;
+    private final TokenBucket rateLimit;
+    private final ScratchPool<Producer> producers = ScratchPool.perProcessor(Producer::new);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    final LongAdder logged = new LongAdder();
+    final LongAdder rateLimited = new LongAdder();
+    final LongAdder bufferFull;
+    final LongAdder tooLarge = new LongAdder();
+
+    /**
+     * @param maxPerSecond zero or less logs every span
+     */
+    public AsyncLoggingReporter(int bufferSize, double maxPerSecond) {
+        this.ring = new OffHeapRingBuffer(bufferSize);
+        this.bufferFull = ring.dropped;
+        this.rateLimit = maxPerSecond > 0 ? new TokenBucket(maxPerSecond, maxPerSecond) : null;
+        this.writer = new Thread(this::write, "span-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        if (rateLimit != null && !rateLimit.tryAcquire()) {
+            rateLimited.increment();
+            return;
+        }
+        Producer producer = producers.take();
+        try {
+            StringBuilder line = producer.line;
+            line.setLength(0);
+            appendJson(line, span);
+            ByteBuffer bytes = producer.bytes;
+            bytes.clear();
+            CharsetEncoder encoder = producer.encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(line), bytes, true);
+            if (result.isOverflow() || encoder.flush(bytes).isOverflow()) {
+                tooLarge.increment();
+                return;
+            }
+            bytes.flip();
+            ring.offer(bytes);
+        } finally {
+            producers.release(producer);
+        }
+    }
+
+    private void write() {
+        while (true) {
+            if (!ring.poll(this::log)) {
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private boolean log(ByteBuffer record) {
+        spanLog.info(StandardCharsets.UTF_8.decode(record).toString());
+        logged.increment();
+        return true;
+    }
+
+    static void appendJson(StringBuilder line, JaegerSpan span) {
+        JaegerSpanContext context = span.context();
+        Map<String, Object> tags = span.getTags();
+        List<?> logs = span.getLogs();
+        line.append("{\"service\":");
+        appendString(line, span.getTracer().getServiceName());
+        line.append(",\"traceId\":\"").append(context.toTraceId())
+                .append("\",\"spanId\":\"").append(context.toSpanId()).append('"');
+        if (context.getParentId() != 0) {
+            line.append(",\"parentId\":\"").append(Long.toHexString(context.getParentId())).append('"');
+        }
+        line.append(",\"operation\":");
+        appendString(line, span.getOperationName());
+        line.append(",\"start\":").append(span.getStart())
+                .append(",\"duration\":").append(span.getDuration())
+                .append(",\"error\":").append(Boolean.TRUE.equals(tags.get(Tags.ERROR.getKey())))
+                .append(",\"tags\":{");
+        boolean first = true;
+        for (Map.Entry<String, Object> tag : tags.entrySet()) {
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            appendString(line, tag.getKey());
+            line.append(':');
+            Object value = tag.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                line.append(value);
+            } else {
+                appendString(line, String.valueOf(value));
+            }
+        }
+        line.append("},\"logs\":").append(logs != null ? logs.size() : 0).append('}');
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Lets the writer log what is still in the ring, for up to five seconds.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("span log wrote {} spans, skipped {} (rate limit), {} (buffer full), {} (too large)",
+                logged.sum(), rateLimited.sum(), bufferFull.sum(), tooLarge.sum());
+    }
+
+    private static final class Producer {
+        private final StringBuilder line = new StringBuilder(512);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer bytes = ByteBuffer.allocate(MAX_LINE_BYTES);
+    }
+}
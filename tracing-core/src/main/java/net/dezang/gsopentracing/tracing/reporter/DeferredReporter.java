@@ -0,0 +1,129 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.spi.Reporter;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Creates the exporting reporter on a background thread, started by the constructor: the UDP sender resolves
+ * the agent host and opens its socket, the reporters start their threads, the spool maps its segments and
+ * the off-heap ring allocates its buffer. The thread that finishes a span never waits for that: spans
+ * finished before the reporter exists are held in a small bounded queue, dropped and counted in
+ * {@code dropped} once it is full, and replayed into the reporter when it is created. A reporter that could
+ * not be created drops every span instead of failing the thread that finished it.
+ */
+@Log4j2
+public class DeferredReporter implements Reporter {
+    private static final int MAX_PENDING = 1000;
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final BlockingQueue<JaegerSpan> pending;
+    private final CompletableFuture<Void> ready;
+    private final Duration closeTimeout;
+    // the created reporter, null while it is being created and for good when that failed or came too late
+    private volatile Reporter reporter;
+    private volatile boolean created;
+    private boolean closed;
+
+    final LongAdder dropped = new LongAdder();
+
+    public DeferredReporter(Supplier<Reporter> factory) {
+        this(factory, MAX_PENDING, CLOSE_TIMEOUT);
+    }
+
+    DeferredReporter(Supplier<Reporter> factory, int maxPending, Duration closeTimeout) {
+        this.pending = new ArrayBlockingQueue<>(maxPending);
+        this.closeTimeout = closeTimeout;
+        this.ready = CompletableFuture.supplyAsync(factory, task -> {
+            Thread thread = new Thread(task, "reporter-init");
+            thread.setDaemon(true);
+            thread.start();
+        }).handle(this::created);
+    }
+
+    private synchronized Void created(Reporter reporter, Throwable e) {
+        if (e != null) {
+            log.error("could not create the span reporter, finished spans are dropped", e);
+        } else if (closed) {
+            // close() gave up waiting, nobody else closes it
+            reporter.close();
+        } else {
+            this.reporter = reporter;
+        }
+        created = true;
+        replay();
+        return null;
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        if (!created) {
+            if (!pending.offer(span)) {
+                dropped.increment();
+            }
+            if (!created) {
+                return;
+            }
+            // created while the span was queued, it may have missed the replay
+            replay();
+            return;
+        }
+        deliver(span);
+    }
+
+    private void replay() {
+        for (JaegerSpan span = pending.poll(); span != null; span = pending.poll()) {
+            deliver(span);
+        }
+    }
+
+    private void deliver(JaegerSpan span) {
+        Reporter created = reporter;
+        if (created != null) {
+            created.report(span);
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Waits up to {@code closeTimeout} for a reporter still being created; one that is created later is closed
+     * as soon as it exists.
+     */
+    @Override
+    public void close() {
+        try {
+            ready.get(closeTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("span reporter still not created after {}, dropping the spans finished so far", closeTimeout);
+        } catch (ExecutionException e) {
+            // handled by created()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Reporter toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = reporter;
+            // from now on spans go to the created reporter, or are dropped
+            created = true;
+        }
+        replay();
+        if (toClose != null) {
+            toClose.close();
+        }
+        if (dropped.sum() > 0) {
+            log.info("deferred reporter dropped {} spans", dropped.sum());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.spi.Reporter;
+import io.jaegertracing.thrift.internal.reporters.protocols.JaegerThriftSpanConverter;
+import io.jaegertracing.thriftjava.Process;
+import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.concurrent.ScratchPool;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reporter that keeps finished spans off the heap. The reporting thread writes each span once, as Thrift
+ * compact bytes, into a direct encode buffer and copies them into an {@link OffHeapRingBuffer}; the
+ * {@code JaegerSpan} is garbage as soon as {@code finish()} returns instead of waiting in a heap queue until
+ * the next flush. Encode buffers come from a {@link ScratchPool} that keeps one per processor, so direct
+ * memory does not grow with the number of reporting threads.
+ * <p>
+ * One sender thread copies records from the ring straight into a direct datagram buffer that already holds
+ * the {@code Agent.emitBatch} envelope and the encoded process, and sends it when it is full or
+ * {@code flushInterval} after its first span. Apart from the span's own strings there is no allocation per
+ * span after {@code finish()}.
+ * <p>
+ * As with {@code RemoteReporter}, spans are dropped, and counted, when the ring is full, when a span is larger
+ * than a datagram, or when sending fails.
+ */
+@Log4j2
+public class OffHeapReporter implements Reporter {
+    // compact list header: one byte, plus a varint of up to five bytes for 15 or more elements
+    private static final int MAX_LIST_HEADER = 6;
+    private static final int SUFFIX = 2;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final OffHeapRingBuffer ring;
+    private final DatagramChannel channel;
+    private final int maxPacketSize;
+    private final long flushIntervalNanos;
+    private final ScratchPool<Producer> producers;
+    private final ByteBuffer packet;
+    private final Thread sender;
+    private volatile JaegerTracer tracer;
+    private volatile boolean running = true;
+    private byte[] prefix;
+    private int spansOffset;
+    private int packetSpans;
+    private boolean packetFull;
+    private long packetStartedNanos;
+
+    final LongAdder tooLarge = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+
+    public OffHeapReporter(String agentHost, int agentPort, int maxPacketSize, int bufferSize, Duration flushInterval) {
+        this.ring = new OffHeapRingBuffer(bufferSize);
+        this.maxPacketSize = maxPacketSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        try {
+            this.channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress(agentHost, agentPort));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open UDP channel to " + agentHost + ":" + agentPort, e);
+        }
+        this.producers = ScratchPool.perProcessor(() -> new Producer(maxPacketSize));
+        this.packet = ByteBuffer.allocateDirect(maxPacketSize);
+        this.sender = new Thread(this::send, "off-heap-span-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        if (tracer == null) {
+            tracer = span.getTracer();
+        }
+        Producer producer = producers.take();
+        try {
+            producer.scratch.clear();
+            try {
+                producer.writer.write(span, producer.scratch);
+            } catch (TException e) {
+                tooLarge.increment();
+                return;
+            }
+            producer.scratch.flip();
+            ring.offer(producer.scratch);
+        } finally {
+            producers.release(producer);
+        }
+    }
+
+    private void send() {
+        while (true) {
+            boolean polled = ring.poll(this::append);
+            if (packetFull || packetSpans > 0
+                    && (!polled && !running || System.nanoTime() - packetStartedNanos >= flushIntervalNanos)) {
+                flushPacket();
+            } else if (!polled) {
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Copies the record behind the spans already in the packet; declines it when it does not fit, so that it
+     * stays in the ring until the packet is sent.
+     */
+    private boolean append(ByteBuffer record) {
+        if (prefix == null) {
+            initPacket();
+        }
+        if (record.remaining() > packet.remaining() - SUFFIX) {
+            if (packetSpans == 0) {
+                tooLarge.increment();
+                return true;
+            }
+            packetFull = true;
+            return false;
+        }
+        if (packetSpans++ == 0) {
+            packetStartedNanos = System.nanoTime();
+        }
+        packet.put(record);
+        return true;
+    }
+
+    private void flushPacket() {
+        int spansEnd = packet.position();
+        int listHeader = packetSpans < 15 ? 1 : 1 + varintLength(packetSpans);
+        int start = spansOffset - listHeader - prefix.length;
+        packet.position(start);
+        packet.put(prefix);
+        if (packetSpans < 15) {
+            packet.put((byte) (packetSpans << 4 | TType.STRUCT));
+        } else {
+            packet.put((byte) (0xf0 | TType.STRUCT));
+            for (int n = packetSpans; ; n >>>= 7) {
+                if ((n & ~0x7f) == 0) {
+                    packet.put((byte) n);
+                    break;
+                }
+                packet.put((byte) ((n & 0x7f) | 0x80));
+            }
+        }
+        packet.position(spansEnd);
+        packet.put((byte) 0); // end of Batch
+        packet.put((byte) 0); // end of emitBatch_args
+        packet.limit(spansEnd + SUFFIX).position(start);
+        try {
+            channel.write(packet);
+            sent.add(packetSpans);
+        } catch (IOException e) {
+            sendFailures.add(packetSpans);
+        }
+        packet.clear().position(spansOffset);
+        packetSpans = 0;
+        packetFull = false;
+    }
+
+    // the envelope up to the spans list header: emitBatch message, args struct, Batch struct and its process
+    private void initPacket() {
+        Process process = new Process(tracer.getServiceName())
+                .setTags(JaegerThriftSpanConverter.buildTags(tracer.tags()));
+        ByteBuffer envelope = ByteBuffer.allocate(maxPacketSize);
+        ThriftSpanWriter.ByteBufferTransport transport = new ThriftSpanWriter.ByteBufferTransport();
+        transport.target = envelope;
+        TCompactProtocol protocol = new TCompactProtocol(transport);
+        try {
+            protocol.writeMessageBegin(new TMessage("emitBatch", TMessageType.ONEWAY, 0));
+            protocol.writeStructBegin(new TStruct("emitBatch_args"));
+            protocol.writeFieldBegin(new TField("batch", TType.STRUCT, (short) 1));
+            protocol.writeStructBegin(new TStruct("Batch"));
+            protocol.writeFieldBegin(new TField("process", TType.STRUCT, (short) 1));
+            process.write(protocol);
+            protocol.writeFieldEnd();
+            protocol.writeFieldBegin(new TField("spans", TType.LIST, (short) 2));
+        } catch (TException e) {
+            throw new IllegalStateException("cannot encode the process of " + tracer.getServiceName(), e);
+        }
+        envelope.flip();
+        prefix = new byte[envelope.remaining()];
+        envelope.get(prefix);
+        spansOffset = prefix.length + MAX_LIST_HEADER;
+        packet.clear().position(spansOffset);
+    }
+
+    private static int varintLength(int n) {
+        int length = 1;
+        while ((n & ~0x7f) != 0) {
+            n >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("cannot close UDP channel", e);
+        }
+        log.info("off-heap reporter sent {} spans, dropped {} (buffer full), {} (too large), {} (send failed)",
+                sent.sum(), ring.dropped.sum(), tooLarge.sum(), sendFailures.sum());
+    }
+
+    private static final class Producer {
+        private final ByteBuffer scratch;
+        private final ThriftSpanWriter writer = new ThriftSpanWriter();
+
+        private Producer(int maxSpanSize) {
+            this.scratch = ByteBuffer.allocateDirect(maxSpanSize);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many-producer, one-consumer ring of variable length records in a direct {@link ByteBuffer}.
+ * <p>
+ * A producer claims space by moving {@code tail} with a CAS, copies its record in with absolute accesses, so
+ * producers share no buffer position and keep no per-thread state, and then publishes it by storing the
+ * record length into the header with release semantics. The consumer reads headers with acquire
+ * semantics from {@code head}: zero means the next record is claimed but not yet published, a negative value
+ * is padding up to the end of the buffer, left by a record that did not fit before the wrap. Consumed space
+ * is zeroed before {@code head} moves past it, so a stale header is never mistaken for a new one.
+ * <p>
+ * Records are 8-byte aligned. A producer that finds the ring full drops its record instead of waiting.
+ */
+class OffHeapRingBuffer {
+    private static final int HEADER = Integer.BYTES;
+    private static final int ALIGNMENT = Long.BYTES;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final ByteBuffer consumerView;
+
+    final LongAdder dropped = new LongAdder();
+
+    OffHeapRingBuffer(int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(ALIGNMENT * 2, requestedCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        this.consumerView = buffer.duplicate();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Copies {@code record} from its position to its limit into the ring.
+     *
+     * @return false when the ring had no room and the record was dropped
+     */
+    boolean offer(ByteBuffer record) {
+        int length = record.remaining();
+        int size = align(HEADER + length);
+        if (length == 0 || size > capacity) {
+            dropped.increment();
+            return false;
+        }
+        while (true) {
+            long claimed = tail.get();
+            int index = (int) (claimed & mask);
+            int toEnd = capacity - index;
+            int required = size <= toEnd ? size : toEnd + size;
+            if (claimed + required - head.get() > capacity) {
+                dropped.increment();
+                return false;
+            }
+            if (tail.compareAndSet(claimed, claimed + required)) {
+                if (size > toEnd) {
+                    INT.setRelease(buffer, index, -toEnd);
+                    index = 0;
+                }
+                copy(record, index + HEADER);
+                INT.setRelease(buffer, index, length);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copies the record's remaining bytes to {@code index}, a long at a time, and moves the record to its limit.
+     */
+    private void copy(ByteBuffer record, int index) {
+        int from = record.position();
+        int length = record.remaining();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            LONG.set(buffer, index + i, (long) LONG.get(record, from + i));
+        }
+        for (; i < length; i++) {
+            buffer.put(index + i, record.get(from + i));
+        }
+        record.position(from + length);
+    }
+
+    /**
+     * Consumer side: hands the next published record to {@code sink} without copying it out of the ring.
+     * The record is released once the sink returns, unless the sink returns false, in which case it stays
+     * at the head for the next call.
+     *
+     * @return false when no published record was available or the sink declined it
+     */
+    boolean poll(RecordSink sink) {
+        long position = head.get();
+        int index = (int) (position & mask);
+        int header = (int) INT.getAcquire(buffer, index);
+        if (header < 0) {
+            release(position, index, -header);
+            position = head.get();
+            index = 0;
+            header = (int) INT.getAcquire(buffer, index);
+        }
+        if (header == 0) {
+            return false;
+        }
+        consumerView.limit(index + HEADER + header).position(index + HEADER);
+        if (!sink.accept(consumerView)) {
+            consumerView.limit(capacity);
+            return false;
+        }
+        consumerView.limit(capacity);
+        release(position, index, align(HEADER + header));
+        return true;
+    }
+
+    private void release(long position, int index, int size) {
+        for (int i = index; i < index + size; i += Long.BYTES) {
+            buffer.putLong(i, 0L);
+        }
+        head.lazySet(position + size);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    @FunctionalInterface
+    interface RecordSink {
+        boolean accept(ByteBuffer record);
+    }
+}
@@ -0,0 +1,40 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes what {@link TailSamplingReporter} buffered, kept, dropped and gave up on.
+ */
+public class TailSamplingMeterBinder implements MeterBinder {
+    private final TailSamplingReporter reporter;
+
+    public TailSamplingMeterBinder(TailSamplingReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tracing.tail.buffered.spans", reporter, TailSamplingReporter::getBufferedSpans)
+                .register(registry);
+        Gauge.builder("tracing.tail.buffered.traces", reporter, TailSamplingReporter::getBufferedTraces)
+                .register(registry);
+        counter(registry, "tracing.tail.traces", "decision", "kept", reporter.tracesKept);
+        counter(registry, "tracing.tail.traces", "decision", "dropped", reporter.tracesDropped);
+        counter(registry, "tracing.tail.spans", "decision", "kept", reporter.spansKept);
+        counter(registry, "tracing.tail.spans", "decision", "dropped", reporter.spansDropped);
+        counter(registry, "tracing.tail.overflow", "limit", "max-traces", reporter.tracesOverflowed);
+        counter(registry, "tracing.tail.overflow", "limit", "max-spans", reporter.spansOverflowed);
+        counter(registry, "tracing.tail.overflow", "limit", "max-trace-age", reporter.tracesExpired);
+    }
+
+    private static void counter(MeterRegistry registry, String name, String tag, String value, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                .tag(tag, value)
+                .register(registry);
+    }
+}
@@ -0,0 +1,242 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.tag.Tags;
+import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.SpanObserver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffers the finished spans of each trace and decides once every span the process started for it has
+ * finished, i.e. when its local root finishes. A trace is forwarded to the delegate reporter when one of its
+ * spans is tagged {@code error=true} or runs at least its latency threshold, or else with probability
+ * {@code keepRatio}; everything else is dropped. The head sampler has to sample every trace for this to see
+ * them.
+ * <p>
+ * Memory is bounded three ways, each counted:
+ * <ul>
+ *     <li>at most {@code maxTraces} traces are buffered; spans of further traces are decided one by one</li>
+ *     <li>at most {@code maxSpans} spans are buffered; a span arriving when full is forwarded if it is itself
+ *     interesting and dropped otherwise</li>
+ *     <li>a trace still open after {@code maxTraceAge} (a lost or leaked span) is decided with what it has</li>
+ * </ul>
+ * Decisions are remembered for {@code maxTraceAge}, so spans finishing after their trace was decided follow
+ * that decision; a trace that reopens, e.g. with a later local root, is only kept after a drop when its new
+ * spans are interesting themselves, the keep share is never rolled twice for one trace. Traces are told
+ * apart by their full, possibly 128-bit, id.
+ */
+@Log4j2
+public class TailSamplingReporter implements Reporter, SpanObserver {
+    private final Reporter delegate;
+    private final double keepRatio;
+    private final long slowThresholdMicros;
+    private final Map<String, Long> operationThresholdsMicros = new HashMap<>();
+    private final int maxSpans;
+    private final int maxTraces;
+    private final long maxTraceAgeNanos;
+    private final Map<TraceId, TraceBuffer> traces = new ConcurrentHashMap<>();
+    private final Cache<TraceId, Boolean> decisions;
+    private final AtomicInteger bufferedSpans = new AtomicInteger();
+    private final ScheduledExecutorService sweeper;
+
+    final LongAdder tracesKept = new LongAdder();
+    final LongAdder tracesDropped = new LongAdder();
+    final LongAdder spansKept = new LongAdder();
+    final LongAdder spansDropped = new LongAdder();
+    final LongAdder tracesOverflowed = new LongAdder();
+    final LongAdder spansOverflowed = new LongAdder();
+    final LongAdder tracesExpired = new LongAdder();
+
+    public TailSamplingReporter(Reporter delegate, double keepRatio, Duration slowThreshold,
+                                Map<String, Duration> operationThresholds, int maxSpans, int maxTraces,
+                                Duration maxTraceAge) {
+        this.delegate = delegate;
+        this.keepRatio = keepRatio;
+        this.slowThresholdMicros = TimeUnit.NANOSECONDS.toMicros(slowThreshold.toNanos());
+        operationThresholds.forEach((operation, threshold) ->
+                operationThresholdsMicros.put(operation, TimeUnit.NANOSECONDS.toMicros(threshold.toNanos())));
+        this.maxSpans = maxSpans;
+        this.maxTraces = maxTraces;
+        this.maxTraceAgeNanos = maxTraceAge.toNanos();
+        this.decisions = CacheBuilder.newBuilder()
+                .maximumSize(maxTraces)
+                .expireAfterWrite(maxTraceAge)
+                .build();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("tail-sampling-sweeper").setDaemon(true).build());
+        long sweepInterval = Math.max(TimeUnit.MILLISECONDS.toNanos(100), maxTraceAgeNanos / 10);
+        sweeper.scheduleWithFixedDelay(this::expire, sweepInterval, sweepInterval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onStart(JaegerSpan span) {
+        if (!span.context().isSampled()) {
+            return;
+        }
+        traces.compute(new TraceId(span.context()), (traceId, trace) -> {
+            if (trace == null) {
+                if (traces.size() >= maxTraces) {
+                    tracesOverflowed.increment();
+                    return null;
+                }
+                trace = new TraceBuffer(System.nanoTime());
+            }
+            synchronized (trace) {
+                trace.open++;
+            }
+            return trace;
+        });
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        TraceId traceId = new TraceId(span.context());
+        TraceBuffer trace = traces.get(traceId);
+        if (trace == null) {
+            Boolean decision = decisions.getIfPresent(traceId);
+            forwardOrDrop(span, decision != null ? decision || isInteresting(span) : keep(isInteresting(span)));
+            return;
+        }
+        boolean complete;
+        synchronized (trace) {
+            if (trace.decided) {
+                forwardOrDrop(span, trace.kept);
+                return;
+            }
+            trace.interesting |= isInteresting(span);
+            if (bufferedSpans.incrementAndGet() > maxSpans) {
+                bufferedSpans.decrementAndGet();
+                spansOverflowed.increment();
+                forwardOrDrop(span, isInteresting(span));
+            } else {
+                trace.spans.add(span);
+            }
+            complete = --trace.open <= 0;
+        }
+        if (complete) {
+            decide(traceId, trace);
+        }
+    }
+
+    private void decide(TraceId traceId, TraceBuffer trace) {
+        List<JaegerSpan> spans;
+        synchronized (trace) {
+            if (trace.decided) {
+                return;
+            }
+            trace.decided = true;
+            Boolean earlier = decisions.getIfPresent(traceId);
+            trace.kept = earlier != null ? earlier || trace.interesting : keep(trace.interesting);
+            spans = trace.spans;
+            trace.spans = null;
+        }
+        traces.remove(traceId, trace);
+        decisions.put(traceId, trace.kept);
+        bufferedSpans.addAndGet(-spans.size());
+        (trace.kept ? tracesKept : tracesDropped).increment();
+        for (JaegerSpan span : spans) {
+            forwardOrDrop(span, trace.kept);
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        traces.forEach((traceId, trace) -> {
+            if (now - trace.createdNanos > maxTraceAgeNanos) {
+                tracesExpired.increment();
+                decide(traceId, trace);
+            }
+        });
+    }
+
+    private boolean keep(boolean interesting) {
+        return interesting || ThreadLocalRandom.current().nextDouble() < keepRatio;
+    }
+
+    private boolean isInteresting(JaegerSpan span) {
+        if (Boolean.TRUE.equals(span.getTags().get(Tags.ERROR.getKey()))) {
+            return true;
+        }
+        Long threshold = operationThresholdsMicros.get(span.getOperationName());
+        return span.getDuration() >= (threshold != null ? threshold : slowThresholdMicros);
+    }
+
+    private void forwardOrDrop(JaegerSpan span, boolean keep) {
+        if (keep) {
+            spansKept.increment();
+            delegate.report(span);
+        } else {
+            spansDropped.increment();
+        }
+    }
+
+    int getBufferedSpans() {
+        return bufferedSpans.get();
+    }
+
+    int getBufferedTraces() {
+        return traces.size();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        traces.forEach(this::decide);
+        log.info("tail sampling kept {} and dropped {} traces", tracesKept.sum(), tracesDropped.sum());
+        delegate.close();
+    }
+
+    private static final class TraceId {
+        private final long high;
+        private final long low;
+
+        private TraceId(JaegerSpanContext context) {
+            this.high = context.getTraceIdHigh();
+            this.low = context.getTraceIdLow();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TraceId)) {
+                return false;
+            }
+            TraceId other = (TraceId) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + Long.hashCode(low);
+        }
+    }
+
+    private static final class TraceBuffer {
+        private final long createdNanos;
+        private List<JaegerSpan> spans = new ArrayList<>();
+        private int open;
+        private boolean interesting;
+        private boolean decided;
+        private boolean kept;
+
+        private TraceBuffer(long createdNanos) {
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.LogData;
+import io.jaegertracing.internal.Reference;
+import io.opentracing.References;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link JaegerSpan} as a Thrift compact {@code jaeger.Span} struct straight into a
+ * {@link ByteBuffer}, without building the intermediate {@code thriftjava.Span} object graph that
+ * {@code JaegerThriftSpanConverter} creates. Field layout follows {@code jaeger.thrift}; references and tags
+ * are converted the same way the stock converter does. Not thread-safe; {@link OffHeapReporter} pools them
+ * with their encode buffers.
+ */
+final class ThriftSpanWriter {
+    private static final TStruct STRUCT = new TStruct();
+    private static final TField TRACE_ID_LOW = new TField("traceIdLow", TType.I64, (short) 1);
+    private static final TField TRACE_ID_HIGH = new TField("traceIdHigh", TType.I64, (short) 2);
+    private static final TField SPAN_ID = new TField("spanId", TType.I64, (short) 3);
+    private static final TField PARENT_SPAN_ID = new TField("parentSpanId", TType.I64, (short) 4);
+    private static final TField OPERATION_NAME = new TField("operationName", TType.STRING, (short) 5);
+    private static final TField REFERENCES = new TField("references", TType.LIST, (short) 6);
+    private static final TField FLAGS = new TField("flags", TType.I32, (short) 7);
+    private static final TField START_TIME = new TField("startTime", TType.I64, (short) 8);
+    private static final TField DURATION = new TField("duration", TType.I64, (short) 9);
+    private static final TField TAGS = new TField("tags", TType.LIST, (short) 10);
+    private static final TField LOGS = new TField("logs", TType.LIST, (short) 11);
+
+    private static final TField REF_TYPE = new TField("refType", TType.I32, (short) 1);
+    private static final TField REF_TRACE_ID_LOW = new TField("traceIdLow", TType.I64, (short) 2);
+    private static final TField REF_TRACE_ID_HIGH = new TField("traceIdHigh", TType.I64, (short) 3);
+    private static final TField REF_SPAN_ID = new TField("spanId", TType.I64, (short) 4);
+
+    private static final TField TAG_KEY = new TField("key", TType.STRING, (short) 1);
+    private static final TField TAG_TYPE = new TField("vType", TType.I32, (short) 2);
+    private static final TField TAG_STRING = new TField("vStr", TType.STRING, (short) 3);
+    private static final TField TAG_DOUBLE = new TField("vDouble", TType.DOUBLE, (short) 4);
+    private static final TField TAG_BOOL = new TField("vBool", TType.BOOL, (short) 5);
+    private static final TField TAG_LONG = new TField("vLong", TType.I64, (short) 6);
+
+    private static final TField LOG_TIMESTAMP = new TField("timestamp", TType.I64, (short) 1);
+    private static final TField LOG_FIELDS = new TField("fields", TType.LIST, (short) 2);
+
+    // jaeger.thrift enum values
+    private static final int TAG_TYPE_STRING = 0;
+    private static final int TAG_TYPE_DOUBLE = 1;
+    private static final int TAG_TYPE_BOOL = 2;
+    private static final int TAG_TYPE_LONG = 3;
+    private static final int REF_TYPE_CHILD_OF = 0;
+    private static final int REF_TYPE_FOLLOWS_FROM = 1;
+
+    private final ByteBufferTransport transport = new ByteBufferTransport();
+    private final TCompactProtocol protocol = new TCompactProtocol(transport);
+
+    /**
+     * Writes the span at the position of {@code target} and advances it.
+     *
+     * @throws TException when the span does not fit in the remaining space
+     */
+    void write(JaegerSpan span, ByteBuffer target) throws TException {
+        transport.target = target;
+        protocol.reset();
+        JaegerSpanContext context = span.context();
+        protocol.writeStructBegin(STRUCT);
+        writeI64(TRACE_ID_LOW, context.getTraceIdLow());
+        writeI64(TRACE_ID_HIGH, context.getTraceIdHigh());
+        writeI64(SPAN_ID, context.getSpanId());
+        writeI64(PARENT_SPAN_ID, context.getParentId());
+        protocol.writeFieldBegin(OPERATION_NAME);
+        protocol.writeString(span.getOperationName());
+        protocol.writeFieldEnd();
+        writeReferences(span.getReferences());
+        protocol.writeFieldBegin(FLAGS);
+        protocol.writeI32(context.getFlags());
+        protocol.writeFieldEnd();
+        writeI64(START_TIME, span.getStart());
+        writeI64(DURATION, span.getDuration());
+        Map<String, Object> tags = span.getTags();
+        if (!tags.isEmpty()) {
+            protocol.writeFieldBegin(TAGS);
+            writeTags(tags);
+            protocol.writeFieldEnd();
+        }
+        List<LogData> logs = span.getLogs();
+        if (logs != null && !logs.isEmpty()) {
+            protocol.writeFieldBegin(LOGS);
+            protocol.writeListBegin(new TList(TType.STRUCT, logs.size()));
+            for (LogData log : logs) {
+                protocol.writeStructBegin(STRUCT);
+                writeI64(LOG_TIMESTAMP, log.getTime());
+                protocol.writeFieldBegin(LOG_FIELDS);
+                if (log.getFields() != null) {
+                    writeTags(log.getFields());
+                } else {
+                    protocol.writeListBegin(new TList(TType.STRUCT, log.getMessage() != null ? 1 : 0));
+                    if (log.getMessage() != null) {
+                        writeTag("event", log.getMessage());
+                    }
+                    protocol.writeListEnd();
+                }
+                protocol.writeFieldEnd();
+                protocol.writeFieldStop();
+                protocol.writeStructEnd();
+            }
+            protocol.writeListEnd();
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+
+    // a single CHILD_OF reference is already expressed by parentSpanId
+    private void writeReferences(List<Reference> references) throws TException {
+        if (references.isEmpty()
+                || (references.size() == 1 && References.CHILD_OF.equals(references.get(0).getType()))) {
+            return;
+        }
+        protocol.writeFieldBegin(REFERENCES);
+        protocol.writeListBegin(new TList(TType.STRUCT, references.size()));
+        for (Reference reference : references) {
+            JaegerSpanContext context = reference.getSpanContext();
+            protocol.writeStructBegin(STRUCT);
+            protocol.writeFieldBegin(REF_TYPE);
+            protocol.writeI32(References.CHILD_OF.equals(reference.getType()) ? REF_TYPE_CHILD_OF : REF_TYPE_FOLLOWS_FROM);
+            protocol.writeFieldEnd();
+            writeI64(REF_TRACE_ID_LOW, context.getTraceIdLow());
+            writeI64(REF_TRACE_ID_HIGH, context.getTraceIdHigh());
+            writeI64(REF_SPAN_ID, context.getSpanId());
+            protocol.writeFieldStop();
+            protocol.writeStructEnd();
+        }
+        protocol.writeListEnd();
+        protocol.writeFieldEnd();
+    }
+
+    private void writeTags(Map<String, ?> tags) throws TException {
+        protocol.writeListBegin(new TList(TType.STRUCT, tags.size()));
+        for (Map.Entry<String, ?> tag : tags.entrySet()) {
+            writeTag(tag.getKey(), tag.getValue());
+        }
+        protocol.writeListEnd();
+    }
+
+    private void writeTag(String key, Object value) throws TException {
+        protocol.writeStructBegin(STRUCT);
+        protocol.writeFieldBegin(TAG_KEY);
+        protocol.writeString(key);
+        protocol.writeFieldEnd();
+        if (value instanceof Integer || value instanceof Short || value instanceof Long) {
+            writeI32(TAG_TYPE, TAG_TYPE_LONG);
+            writeI64(TAG_LONG, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeI32(TAG_TYPE, TAG_TYPE_DOUBLE);
+            protocol.writeFieldBegin(TAG_DOUBLE);
+            protocol.writeDouble(((Number) value).doubleValue());
+            protocol.writeFieldEnd();
+        } else if (value instanceof Boolean) {
+            writeI32(TAG_TYPE, TAG_TYPE_BOOL);
+            protocol.writeFieldBegin(TAG_BOOL);
+            protocol.writeBool((Boolean) value);
+            protocol.writeFieldEnd();
+        } else {
+            writeI32(TAG_TYPE, TAG_TYPE_STRING);
+            protocol.writeFieldBegin(TAG_STRING);
+            protocol.writeString(String.valueOf(value));
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+
+    private void writeI64(TField field, long value) throws TException {
+        protocol.writeFieldBegin(field);
+        protocol.writeI64(value);
+        protocol.writeFieldEnd();
+    }
+
+    private void writeI32(TField field, int value) throws TException {
+        protocol.writeFieldBegin(field);
+        protocol.writeI32(value);
+        protocol.writeFieldEnd();
+    }
+
+    /**
+     * Transport over whatever buffer is currently being filled, or read from its position to its limit.
+     */
+    static final class ByteBufferTransport extends TTransport {
+        ByteBuffer target;
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws TTransportException {
+            try {
+                target.put(bytes, offset, length);
+            } catch (BufferOverflowException e) {
+                throw new TTransportException(TTransportException.END_OF_FILE, "span does not fit the buffer");
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws TTransportException {
+            if (!target.hasRemaining()) {
+                throw new TTransportException(TTransportException.END_OF_FILE, "no bytes left in the buffer");
+            }
+            int read = Math.min(length, target.remaining());
+            target.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.ProbabilisticSampler;
+import io.jaegertracing.internal.samplers.SamplingStatus;
+import io.jaegertracing.spi.Sampler;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the sampled root spans per second near a target under changing load. Every adjust interval the
+ * sampling probability is re-derived from a smoothed arrival rate, and a token bucket at the target rate
+ * caps bursts that arrive before the next adjustment. Sampled spans are tagged {@code sampler.type=adaptive}
+ * with the probability in force as {@code sampler.param}.
+ */
+public class AdaptiveSampler implements Sampler {
+    public static final String TYPE = "adaptive";
+    private static final double SMOOTHING = 0.5;
+
+    private final double targetPerSecond;
+    private final long adjustIntervalNanos;
+    private final TokenBucket ceiling;
+    private final LongAdder arrivals = new LongAdder();
+    private final AtomicLong nextAdjustAt;
+    private volatile double smoothedRate = -1;
+    private volatile Decision current = new Decision(1);
+
+    public AdaptiveSampler(double targetPerSecond, Duration adjustInterval) {
+        this(targetPerSecond, adjustInterval, System.nanoTime());
+    }
+
+    AdaptiveSampler(double targetPerSecond, Duration adjustInterval, long startNanos) {
+        this.targetPerSecond = targetPerSecond;
+        this.adjustIntervalNanos = adjustInterval.toNanos();
+        this.ceiling = new TokenBucket(targetPerSecond, targetPerSecond);
+        this.nextAdjustAt = new AtomicLong(startNanos + adjustIntervalNanos);
+    }
+
+    @Override
+    public SamplingStatus sample(String operation, long id) {
+        return sample(operation, id, System.nanoTime());
+    }
+
+    SamplingStatus sample(String operation, long id, long nowNanos) {
+        arrivals.increment();
+        long adjustAt = nextAdjustAt.get();
+        if (nowNanos - adjustAt >= 0 && nextAdjustAt.compareAndSet(adjustAt, nowNanos + adjustIntervalNanos)) {
+            adjust(nowNanos - adjustAt + adjustIntervalNanos);
+        }
+        Decision decision = current;
+        if (decision.probabilistic.sample(operation, id).isSampled() && ceiling.tryAcquire(nowNanos)) {
+            return decision.sampled;
+        }
+        return decision.notSampled;
+    }
+
+    public double getSamplingRate() {
+        return current.probabilistic.getSamplingRate();
+    }
+
+    // only the thread that won the CAS on nextAdjustAt gets here, so the read-modify-write is not racy
+    private void adjust(long elapsedNanos) {
+        double observed = arrivals.sumThenReset() * 1_000_000_000d / elapsedNanos;
+        double rate = smoothedRate < 0 ? observed : SMOOTHING * observed + (1 - SMOOTHING) * smoothedRate;
+        smoothedRate = rate;
+        double probability = rate <= targetPerSecond ? 1 : targetPerSecond / rate;
+        if (probability != current.probabilistic.getSamplingRate()) {
+            current = new Decision(probability);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * The probability in force and the statuses it hands out, swapped as a whole on every change.
+     */
+    private static final class Decision {
+        private final ProbabilisticSampler probabilistic;
+        private final SamplingStatus sampled;
+        private final SamplingStatus notSampled;
+
+        private Decision(double probability) {
+            this.probabilistic = new ProbabilisticSampler(probability);
+            Map<String, Object> tags = Map.of(
+                    Samplers.SAMPLER_TYPE_TAG, TYPE,
+                    Samplers.SAMPLER_PARAM_TAG, probability);
+            this.sampled = SamplingStatus.of(true, tags);
+            this.notSampled = SamplingStatus.of(false, tags);
+        }
+    }
+}
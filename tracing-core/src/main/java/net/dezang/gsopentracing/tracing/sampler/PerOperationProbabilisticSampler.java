@@ -0,0 +1,33 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.ProbabilisticSampler;
+import io.jaegertracing.internal.samplers.SamplingStatus;
+import io.jaegertracing.spi.Sampler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Probabilistic sampling with its own rate per root operation name, e.g. {@code consumed} or
+ * {@code work-in-rest-producer}. Operations that are not listed use the default probability.
+ */
+public class PerOperationProbabilisticSampler implements Sampler {
+    private final Map<String, Sampler> samplers;
+    private final Sampler defaultSampler;
+
+    public PerOperationProbabilisticSampler(Map<String, Double> probabilities, double defaultProbability) {
+        Map<String, Sampler> samplers = new HashMap<>();
+        probabilities.forEach((operation, probability) -> samplers.put(operation, new ProbabilisticSampler(probability)));
+        this.samplers = Map.copyOf(samplers);
+        this.defaultSampler = new ProbabilisticSampler(defaultProbability);
+    }
+
+    @Override
+    public SamplingStatus sample(String operation, long id) {
+        return samplers.getOrDefault(operation, defaultSampler).sample(operation, id);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,37 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.internal.samplers.ProbabilisticSampler;
+import io.jaegertracing.spi.Sampler;
+import net.dezang.gsopentracing.tracing.TracingProperties.SamplerProperties;
+
+/**
+ * Creates the configured {@link Sampler}.
+ * <p>
+ * A sampler is only consulted for spans that start a new trace. When a span is built {@code asChildOf} a
+ * context extracted from an {@code uber-trace-id} header, {@code JaegerTracer} copies the upstream sampled
+ * flag instead, so a trace is never cut in half by a downstream app sampling differently.
+ */
+public final class Samplers {
+    public static final String SAMPLER_TYPE_TAG = "sampler.type";
+    public static final String SAMPLER_PARAM_TAG = "sampler.param";
+
+    private Samplers() {
+    }
+
+    public static Sampler create(SamplerProperties properties) {
+        switch (properties.getType()) {
+            case PROBABILISTIC:
+                return new ProbabilisticSampler(properties.getParam());
+            case RATE_LIMITING:
+                return new TokenBucketSampler(properties.getParam());
+            case PER_OPERATION:
+                return new PerOperationProbabilisticSampler(properties.getOperations(), properties.getParam());
+            case ADAPTIVE:
+                return new AdaptiveSampler(properties.getParam(), properties.getAdjustInterval());
+            case CONST:
+            default:
+                return new ConstSampler(properties.getParam() != 0);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm: the whole bucket state is one
+ * "theoretical arrival time", advanced with a CAS per granted permit.
+ */
+public final class TokenBucket {
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLong theoreticalArrivalTime;
+
+    public TokenBucket(double permitsPerSecond, double maxBurst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.emissionIntervalNanos = Math.max(1L, (long) (1_000_000_000L / permitsPerSecond));
+        this.burstToleranceNanos = (long) (emissionIntervalNanos * Math.max(1d, maxBurst));
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long next = (tat - nowNanos < 0 ? nowNanos : tat) + emissionIntervalNanos;
+            if (next - nowNanos > burstToleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.SamplingStatus;
+import io.jaegertracing.spi.Sampler;
+
+import java.util.Map;
+
+/**
+ * Samples at most {@code tracesPerSecond} new traces, allowing a burst of one second's worth.
+ * Unlike Jaeger's {@code RateLimitingSampler} it never takes a lock.
+ */
+public class TokenBucketSampler implements Sampler {
+    public static final String TYPE = "ratelimiting";
+
+    private final TokenBucket bucket;
+    private final SamplingStatus sampled;
+    private final SamplingStatus notSampled;
+
+    public TokenBucketSampler(double tracesPerSecond) {
+        this.bucket = new TokenBucket(tracesPerSecond, tracesPerSecond);
+        Map<String, Object> tags = Map.of(
+                Samplers.SAMPLER_TYPE_TAG, TYPE,
+                Samplers.SAMPLER_PARAM_TAG, tracesPerSecond);
+        this.sampled = SamplingStatus.of(true, tags);
+        this.notSampled = SamplingStatus.of(false, tags);
+    }
+
+    @Override
+    public SamplingStatus sample(String operation, long id) {
+        return bucket.tryAcquire() ? sampled : notSampled;
+    }
+
+    @Override
+    public void close() {
+    }
+}
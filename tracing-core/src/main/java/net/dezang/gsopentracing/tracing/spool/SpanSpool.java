@@ -0,0 +1,362 @@
+package net.dezang.gsopentracing.tracing.spool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only ring of memory-mapped segment files holding length-prefixed records, with one reader whose
+ * position survives restarts.
+ * <p>
+ * A record is {@code [int length][bytes]}; the length is written after the bytes, so a crash mid-append
+ * leaves a zero length that ends the segment on recovery. When a segment is full the writer moves on to a
+ * spare one, and once {@code maxSegments} exist (the spare included) the oldest is dropped, unread records
+ * included: the spool keeps the newest data within its size cap.
+ * <p>
+ * Appends only copy into mapped memory under a short lock and never wait for the reader or the disk. Creating
+ * and mapping the spare segment and deleting dropped or read segments happen on the
+ * {@code span-spool-allocator} thread; should a segment fill up before its successor is mapped, records are
+ * rejected until it is, counted in {@code segmentNotReady}.
+ * <p>
+ * The reader position is kept in a small mapped {@value #CHECKPOINT_FILE} file and only moves on
+ * {@link #commit}, so records handed out but not committed are read again after a restart.
+ */
+@Log4j2
+public class SpanSpool implements Closeable {
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Executor allocator;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final MappedByteBuffer checkpoint;
+    private Segment writeSegment;
+    private Segment spare;
+    private boolean allocating;
+    private long readSequence;
+    private int readPosition;
+
+    final LongAdder appended = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder segmentNotReady = new LongAdder();
+    final LongAdder droppedSegments = new LongAdder();
+
+    public SpanSpool(Path directory, int segmentSize, int maxSegments) {
+        this(directory, segmentSize, maxSegments, Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("span-spool-allocator").setDaemon(true).build()));
+    }
+
+    /**
+     * @param allocator runs the segment file I/O, tasks in submission order
+     */
+    SpanSpool(Path directory, int segmentSize, int maxSegments, Executor allocator) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(3, maxSegments);
+        this.allocator = allocator;
+        try {
+            Files.createDirectories(directory);
+            for (Path path : segmentFiles(directory)) {
+                segments.addLast(Segment.open(path, sequence(path), segmentSize));
+            }
+            checkpoint = map(directory.resolve(CHECKPOINT_FILE), Long.BYTES + Integer.BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open span spool in " + directory, e);
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(createSegment(0));
+        }
+        writeSegment = segments.peekLast();
+        spare = createSegment(writeSegment.sequence + 1);
+        readSequence = checkpoint.getLong(0);
+        readPosition = checkpoint.getInt(Long.BYTES);
+        if (segments.peekFirst().sequence > readSequence) {
+            readSequence = segments.peekFirst().sequence;
+            readPosition = 0;
+        }
+    }
+
+    /**
+     * @return false when the record is larger than a segment, or the next segment is not mapped yet, and was
+     * not stored
+     */
+    public synchronized boolean append(byte[] record) {
+        if (LENGTH_BYTES + record.length > segmentSize) {
+            rejected.increment();
+            return false;
+        }
+        if (writeSegment.limit + LENGTH_BYTES + record.length > segmentSize) {
+            if (spare == null) {
+                segmentNotReady.increment();
+                allocateSpare();
+                return false;
+            }
+            if (segments.size() + 1 >= maxSegments) {
+                Segment oldest = segments.pollFirst();
+                droppedSegments.increment();
+                execute(() -> delete(oldest));
+            }
+            writeSegment = spare;
+            segments.addLast(writeSegment);
+            spare = null;
+            allocateSpare();
+        }
+        Segment segment = writeSegment;
+        int position = segment.limit;
+        segment.buffer.position(position + LENGTH_BYTES);
+        segment.buffer.put(record);
+        segment.buffer.putInt(position, record.length);
+        segment.limit = position + LENGTH_BYTES + record.length;
+        appended.increment();
+        return true;
+    }
+
+    /**
+     * Reads the records after the reader position, up to {@code maxBytes} of record data but at least one
+     * record if there is any. Only one thread may read. The position does not move until the returned batch
+     * is {@link #commit committed}.
+     */
+    public Batch read(int maxBytes) {
+        List<byte[]> records = new ArrayList<>();
+        long sequence = readSequence;
+        int position = readPosition;
+        int bytes = 0;
+        while (true) {
+            Segment segment;
+            boolean last;
+            synchronized (this) {
+                segment = segmentAtOrAfter(sequence);
+                last = segment == writeSegment;
+            }
+            if (segment.sequence != sequence) {
+                // the writer dropped the segment we were on
+                sequence = segment.sequence;
+                position = 0;
+            }
+            int limit = segment.limit;
+            while (position < limit) {
+                int length = segment.reader.getInt(position);
+                if (bytes > 0 && bytes + length > maxBytes) {
+                    return new Batch(records, sequence, position);
+                }
+                byte[] record = new byte[length];
+                segment.reader.position(position + LENGTH_BYTES);
+                segment.reader.get(record);
+                records.add(record);
+                bytes += length;
+                position += LENGTH_BYTES + length;
+            }
+            if (last) {
+                return new Batch(records, sequence, position);
+            }
+            sequence++;
+            position = 0;
+        }
+    }
+
+    public synchronized void commit(Batch batch) {
+        readSequence = batch.sequence;
+        readPosition = batch.position;
+        checkpoint.putLong(0, readSequence);
+        checkpoint.putInt(Long.BYTES, readPosition);
+        while (segments.peekFirst() != writeSegment && segments.peekFirst().sequence < readSequence) {
+            Segment read = segments.pollFirst();
+            execute(() -> delete(read));
+        }
+    }
+
+    /**
+     * Maps the segment after the write segment in the background, unless that is already under way.
+     */
+    private void allocateSpare() {
+        if (allocating) {
+            return;
+        }
+        allocating = true;
+        long sequence = writeSegment.sequence + 1;
+        execute(() -> {
+            Segment created = null;
+            try {
+                created = createSegment(sequence);
+            } catch (UncheckedIOException e) {
+                log.warn("cannot create span spool segment, retrying on the next append", e);
+            }
+            synchronized (this) {
+                spare = created;
+                allocating = false;
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        try {
+            allocator.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closed, the files stay until the next start
+        }
+    }
+
+    private Segment segmentAtOrAfter(long sequence) {
+        for (Segment segment : segments) {
+            if (segment.sequence >= sequence) {
+                return segment;
+            }
+        }
+        return writeSegment;
+    }
+
+    private Segment createSegment(long sequence) {
+        try {
+            return Segment.open(directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX)),
+                    sequence, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create span spool segment in " + directory, e);
+        }
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("cannot delete span spool segment {}", segment.path, e);
+        }
+    }
+
+    static List<Path> segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (allocator instanceof ExecutorService) {
+            ExecutorService executor = (ExecutorService) allocator;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            checkpoint.force();
+        }
+    }
+
+    public static final class Batch {
+        private final List<byte[]> records;
+        private final long sequence;
+        private final int position;
+
+        private Batch(List<byte[]> records, long sequence, int position) {
+            this.records = records;
+            this.sequence = sequence;
+            this.position = position;
+        }
+
+        public List<byte[]> getRecords() {
+            return records;
+        }
+    }
+
+    static final class Segment {
+        private final Path path;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer reader;
+        private volatile int limit;
+
+        private Segment(Path path, long sequence, MappedByteBuffer buffer, int limit) {
+            this.path = path;
+            this.sequence = sequence;
+            this.buffer = buffer;
+            this.reader = buffer.duplicate();
+            this.limit = limit;
+        }
+
+        static Segment open(Path path, long sequence, int size) throws IOException {
+            MappedByteBuffer buffer = map(path, size);
+            return new Segment(path, sequence, buffer, recover(buffer, size));
+        }
+
+        /**
+         * Maps an existing segment read-only, e.g. one a running app is still writing.
+         */
+        static Segment openReadOnly(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                int size = (int) channel.size();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new Segment(path, sequence(path), buffer, recover(buffer, size));
+            }
+        }
+
+        /**
+         * Walks the records to the first zero length, which marks the end of what was fully written.
+         */
+        static int recover(ByteBuffer buffer, int size) {
+            int position = 0;
+            while (position + LENGTH_BYTES <= size) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + LENGTH_BYTES + length > size) {
+                    break;
+                }
+                position += LENGTH_BYTES + length;
+            }
+            return position;
+        }
+
+        void forEach(Consumer<byte[]> consumer) {
+            for (int position = 0; position < limit; ) {
+                int length = reader.getInt(position);
+                byte[] record = new byte[length];
+                reader.position(position + LENGTH_BYTES);
+                reader.get(record);
+                consumer.accept(record);
+                position += LENGTH_BYTES + length;
+            }
+        }
+    }
+}
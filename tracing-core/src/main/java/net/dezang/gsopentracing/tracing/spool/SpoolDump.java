@@ -0,0 +1,100 @@
+package net.dezang.gsopentracing.tracing.spool;
+
+import io.jaegertracing.thriftjava.Span;
+import io.jaegertracing.thriftjava.Tag;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.stream.Collectors;
+
+/**
+ * Prints the spans in a spool directory, one per line, oldest first:
+ * <pre>
+ * ./gradlew :tracing-core:spoolDump --args="/tmp/gs-opentracing-spool/app-consumer --trace 5f2c0a --operation saveToDb"
+ * </pre>
+ * {@code --trace} matches the hex trace id by prefix, {@code --operation} the operation name exactly.
+ * Safe to run against the spool of a running app; it only reads.
+ */
+public final class SpoolDump {
+
+    private SpoolDump() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: SpoolDump <spool-directory> [--trace <hex trace id prefix>] [--operation <name>]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        String trace = null;
+        String operation = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if ("--trace".equals(args[i])) {
+                trace = args[i + 1].toLowerCase();
+            } else if ("--operation".equals(args[i])) {
+                operation = args[i + 1];
+            }
+        }
+        TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+        String traceFilter = trace;
+        String operationFilter = operation;
+        for (Path path : SpanSpool.segmentFiles(directory)) {
+            SpanSpool.Segment segment = SpanSpool.Segment.openReadOnly(path);
+            segment.forEach(record -> {
+                Span span = new Span();
+                try {
+                    deserializer.deserialize(span, record);
+                } catch (TException e) {
+                    System.err.println("skipping undecodable record in " + path + ": " + e.getMessage());
+                    return;
+                }
+                String traceId = traceId(span);
+                if ((traceFilter == null || traceId.startsWith(traceFilter))
+                        && (operationFilter == null || operationFilter.equals(span.getOperationName()))) {
+                    System.out.println(format(traceId, span));
+                }
+            });
+        }
+    }
+
+    private static String traceId(Span span) {
+        return span.getTraceIdHigh() != 0
+                ? String.format("%x%016x", span.getTraceIdHigh(), span.getTraceIdLow())
+                : Long.toHexString(span.getTraceIdLow());
+    }
+
+    private static String format(String traceId, Span span) {
+        String tags = span.getTags() == null ? "" : span.getTags().stream()
+                .map(SpoolDump::format)
+                .collect(Collectors.joining(" ", " ", ""));
+        return String.format("%s %s:%x:%x %s %dus%s",
+                Instant.ofEpochMilli(span.getStartTime() / 1000), traceId, span.getSpanId(), span.getParentSpanId(),
+                span.getOperationName(), span.getDuration(), tags);
+    }
+
+    private static String format(Tag tag) {
+        Object value;
+        switch (tag.getVType()) {
+            case BOOL:
+                value = tag.isVBool();
+                break;
+            case LONG:
+                value = tag.getVLong();
+                break;
+            case DOUBLE:
+                value = tag.getVDouble();
+                break;
+            case BINARY:
+                value = tag.getVBinary().length + "B";
+                break;
+            default:
+                value = tag.getVStr();
+        }
+        return tag.getKey() + "=" + value;
+    }
+}
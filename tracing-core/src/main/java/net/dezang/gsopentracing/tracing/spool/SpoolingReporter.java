@@ -0,0 +1,159 @@
+package net.dezang.gsopentracing.tracing.spool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.exceptions.SenderException;
+import io.jaegertracing.spi.Reporter;
+import io.jaegertracing.thrift.internal.reporters.protocols.JaegerThriftSpanConverter;
+import io.jaegertracing.thrift.internal.senders.ThriftSender;
+import io.jaegertracing.thriftjava.Process;
+import io.jaegertracing.thriftjava.Span;
+import lombok.extern.log4j.Log4j2;
+import net.dezang.gsopentracing.tracing.concurrent.ScratchPool;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes every reported span, Thrift compact encoded, to a {@link SpanSpool} on the reporting thread and
+ * drains the spool to the agent from a background thread. The reporting thread only encodes and copies into
+ * mapped memory; all network I/O happens on the drainer.
+ * <p>
+ * A failed send leaves the batch in the spool and the drainer backs off, doubling the wait up to
+ * {@value #MAX_BACKOFF_SECONDS}s, so spans written while the agent is away are sent once it is back, as long
+ * as they fit in the spool. The spool only protects against sends that fail, though: UDP has no
+ * acknowledgement, so a batch counts as delivered, and leaves the spool, once the datagram is handed to the
+ * kernel. A stopped agent shows up only when the kernel reports its port as unreachable to a later send, so the
+ * batches sent in between are gone, and an agent that is up but drops datagrams is never noticed at all. The
+ * spool bridges agent restarts and backpressure, not a guaranteed delivery. It can be read offline with
+ * {@link SpoolDump}.
+ * <p>
+ * A span that does not fit in a datagram could never be sent and would hold up the spool behind it, so it is
+ * dropped, and counted in {@code tooLarge}, instead of spooled; one already in the spool, e.g. written with a
+ * larger {@code maxPacketSize}, is skipped by the drainer.
+ */
+@Log4j2
+public class SpoolingReporter implements Reporter {
+    private static final int MAX_BACKOFF_SECONDS = 30;
+    // room for the process and the batch envelope in a datagram
+    private static final int BATCH_OVERHEAD = 1024;
+
+    private final SpanSpool spool;
+    private final ThriftSender sender;
+    private final int maxBatchBytes;
+    private final long drainIntervalMillis;
+    private final ScheduledExecutorService drainer;
+    private final ScratchPool<TSerializer> serializers = ScratchPool.perProcessor(
+            () -> new TSerializer(new TCompactProtocol.Factory()));
+    private final TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+    private volatile Process process;
+    private int failures;
+    private long nextAttemptMillis;
+
+    final LongAdder encodeFailures = new LongAdder();
+    final LongAdder tooLarge = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder sendFailures = new LongAdder();
+
+    public SpoolingReporter(SpanSpool spool, ThriftSender sender, String serviceName, int maxPacketSize,
+                            Duration drainInterval) {
+        this.spool = spool;
+        this.sender = sender;
+        this.process = new Process(serviceName);
+        this.maxBatchBytes = maxPacketSize - BATCH_OVERHEAD;
+        this.drainIntervalMillis = drainInterval.toMillis();
+        this.drainer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("span-spool-drainer").setDaemon(true).build());
+        drainer.scheduleWithFixedDelay(this::drain, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        if (process.getTags() == null) {
+            // the tracer's tags (hostname, ip, client version) are only known once it reports
+            process = new Process(span.getTracer().getServiceName())
+                    .setTags(JaegerThriftSpanConverter.buildTags(span.getTracer().tags()));
+        }
+        TSerializer serializer = serializers.take();
+        try {
+            byte[] record = serializer.serialize(JaegerThriftSpanConverter.convertSpan(span));
+            if (record.length > maxBatchBytes) {
+                tooLarge.increment();
+                return;
+            }
+            spool.append(record);
+        } catch (TException e) {
+            encodeFailures.increment();
+        } finally {
+            serializers.release(serializer);
+        }
+    }
+
+    private void drain() {
+        if (System.currentTimeMillis() < nextAttemptMillis) {
+            return;
+        }
+        try {
+            while (true) {
+                SpanSpool.Batch batch = spool.read(maxBatchBytes);
+                if (batch.getRecords().isEmpty()) {
+                    return;
+                }
+                // read returns a record larger than maxBytes on its own, no send could ever take it
+                if (batch.getRecords().get(0).length > maxBatchBytes) {
+                    spool.commit(batch);
+                    tooLarge.increment();
+                    continue;
+                }
+                List<Span> spans = new ArrayList<>(batch.getRecords().size());
+                for (byte[] record : batch.getRecords()) {
+                    Span span = new Span();
+                    deserializer.deserialize(span, record);
+                    spans.add(span);
+                }
+                sender.send(process, spans);
+                spool.commit(batch);
+                sent.add(spans.size());
+                failures = 0;
+            }
+        } catch (SenderException | TException e) {
+            sendFailures.increment();
+            long backoff = Math.min(TimeUnit.SECONDS.toMillis(MAX_BACKOFF_SECONDS),
+                    drainIntervalMillis << Math.min(failures++, 16));
+            nextAttemptMillis = System.currentTimeMillis() + backoff;
+            log.warn("cannot send spooled spans, retrying in {} ms: {}", backoff, e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("span spool drainer failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        nextAttemptMillis = 0;
+        drain();
+        try {
+            sender.close();
+        } catch (SenderException e) {
+            log.warn("cannot close span sender", e);
+        }
+        spool.close();
+        log.info("span spool appended {}, rejected {}, sent {}, dropped {} segments, {} spans too large",
+                spool.appended.sum(), spool.rejected.sum() + spool.segmentNotReady.sum(), sent.sum(),
+                spool.droppedSegments.sum(), tooLarge.sum());
+    }
+}
@@ -0,0 +1,74 @@
+package net.dezang.gsopentracing.tracing;
+
+import io.jaegertracing.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TracingPropertiesTests {
+    private static final List<String> SETTINGS = List.of(Configuration.JAEGER_SERVICE_NAME,
+            Configuration.JAEGER_AGENT_HOST, Configuration.JAEGER_AGENT_PORT, Configuration.JAEGER_SAMPLER_TYPE,
+            Configuration.JAEGER_SAMPLER_PARAM, Configuration.JAEGER_REPORTER_FLUSH_INTERVAL);
+
+    @AfterEach
+    void clearSettings() {
+        SETTINGS.forEach(System::clearProperty);
+    }
+
+    @Test
+    void defaultsWithoutJaegerSettings() {
+        TracingProperties properties = bind(Map.of());
+
+        assertThat(properties.getServiceName()).isNull();
+        assertThat(properties.getSampler().getType()).isEqualTo(TracingProperties.SamplerType.CONST);
+        assertThat(properties.getSampler().getParam()).isEqualTo(1);
+        assertThat(properties.getSender().getAgentHost()).isEqualTo("localhost");
+        assertThat(properties.getSender().getAgentPort()).isEqualTo(6831);
+        assertThat(properties.getReporter().getFlushInterval()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void jaegerSettingsSeedTheDefaults() {
+        System.setProperty(Configuration.JAEGER_SERVICE_NAME, "from-env");
+        System.setProperty(Configuration.JAEGER_AGENT_HOST, "jaeger-agent");
+        System.setProperty(Configuration.JAEGER_SAMPLER_TYPE, "probabilistic");
+        System.setProperty(Configuration.JAEGER_SAMPLER_PARAM, "0.25");
+        System.setProperty(Configuration.JAEGER_REPORTER_FLUSH_INTERVAL, "200");
+
+        TracingProperties properties = bind(Map.of());
+
+        assertThat(properties.getServiceName()).isEqualTo("from-env");
+        assertThat(properties.getSender().getAgentHost()).isEqualTo("jaeger-agent");
+        assertThat(properties.getSampler().getType()).isEqualTo(TracingProperties.SamplerType.PROBABILISTIC);
+        assertThat(properties.getSampler().getParam()).isEqualTo(0.25);
+        assertThat(properties.getReporter().getFlushInterval()).isEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    void propertiesOverrideJaegerSettings() {
+        System.setProperty(Configuration.JAEGER_AGENT_HOST, "jaeger-agent");
+        System.setProperty(Configuration.JAEGER_AGENT_PORT, "6832");
+        System.setProperty(Configuration.JAEGER_SAMPLER_TYPE, "probabilistic");
+
+        TracingProperties properties = bind(Map.of(
+                "tracing.sender.agent-port", "7000",
+                "tracing.sampler.type", "adaptive"));
+
+        assertThat(properties.getSender().getAgentHost()).isEqualTo("jaeger-agent");
+        assertThat(properties.getSender().getAgentPort()).isEqualTo(7000);
+        assertThat(properties.getSampler().getType()).isEqualTo(TracingProperties.SamplerType.ADAPTIVE);
+    }
+
+    private static TracingProperties bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bindOrCreate("tracing", Bindable.of(TracingProperties.class));
+    }
+}
@@ -0,0 +1,23 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScratchPoolTests {
+
+    @Test
+    void reusesReleasedObjectsUpToItsCapacity() {
+        ScratchPool<StringBuilder> pool = new ScratchPool<>(1, StringBuilder::new);
+
+        StringBuilder first = pool.take();
+        StringBuilder second = pool.take();
+        pool.release(first);
+        pool.release(second);
+
+        assertThat(first).isNotSameAs(second);
+        assertThat(pool.idle()).isEqualTo(1);
+        assertThat(pool.take()).isSameAs(first);
+        assertThat(pool.take()).isNotSameAs(second);
+    }
+}
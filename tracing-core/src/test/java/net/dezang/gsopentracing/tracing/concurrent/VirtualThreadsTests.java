@@ -0,0 +1,54 @@
+package net.dezang.gsopentracing.tracing.concurrent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadsTests {
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(VirtualThreadsAutoConfiguration.class));
+
+    @Test
+    void fallsBackToPlatformThreadsWithoutVirtualThreads() {
+        assumeFalse(VirtualThreads.isSupported());
+
+        assertThat(VirtualThreads.enabled(true)).isFalse();
+        assertThatThrownBy(() -> VirtualThreads.factory("test-")).isInstanceOf(IllegalStateException.class);
+        contextRunner.withPropertyValues("spring.threads.virtual.enabled=true")
+                .run(context -> assertThat(context)
+                        .hasNotFailed()
+                        .doesNotHaveBean(VirtualThreadsAutoConfiguration.class));
+    }
+
+    @Test
+    void runsTasksOnVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+
+        assertThat(VirtualThreads.enabled(true)).isTrue();
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            Future<Thread> thread = executor.submit(Thread::currentThread);
+            assertThat(thread.get(5, TimeUnit.SECONDS).getName()).startsWith("test-");
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread.get())).isEqualTo(true);
+        } finally {
+            executor.shutdown();
+        }
+        contextRunner.withPropertyValues("spring.threads.virtual.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(VirtualThreadsAutoConfiguration.class));
+    }
+
+    @Test
+    void staysOffUnlessRequested() {
+        assertThat(VirtualThreads.enabled(false)).isFalse();
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(VirtualThreadsAutoConfiguration.class));
+    }
+}
@@ -0,0 +1,91 @@
+package net.dezang.gsopentracing.tracing.metrics;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.micrometer.core.instrument.MockClock;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import net.dezang.gsopentracing.tracing.ObservedObjectFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpanMetricsTests {
+
+    @Test
+    void countsUnsampledSpansAndErrorsOnce() {
+        SpanMetrics metrics = new SpanMetrics(10);
+        InMemoryReporter reporter = new InMemoryReporter();
+        JaegerTracer tracer = new JaegerTracer.Builder("test", new ObservedObjectFactory(List.of(metrics))) {
+        }
+                .withSampler(new ConstSampler(false))
+                .withReporter(reporter)
+                .build();
+
+        tracer.buildSpan("consumed").start().finish();
+        Span failed = tracer.buildSpan("consumed").start();
+        Tags.ERROR.set(failed, true);
+        failed.finish();
+        failed.finish();
+
+        SpanMetrics.OperationStats stats = metrics.stats("consumed");
+        assertThat(reporter.getSpans()).isEmpty();
+        assertThat(stats.getCount()).isEqualTo(2);
+        assertThat(stats.getErrors()).isEqualTo(1);
+        assertThat(stats.getCumulativeCount(SpanMetrics.BUCKET_BOUNDS_MICROS.length)).isEqualTo(2);
+    }
+
+    @Test
+    void bucketsByUpperBoundAndCapsOperations() {
+        SpanMetrics metrics = new SpanMetrics(1);
+
+        metrics.record("saveToDb", 1_000, false);
+        metrics.record("saveToDb", 250_001, false);
+        metrics.record("work", 300_000, false);
+
+        SpanMetrics.OperationStats stats = metrics.stats("saveToDb");
+        assertThat(stats.getCumulativeCount(0)).isEqualTo(1);
+        assertThat(stats.getCumulativeCount(7)).isEqualTo(1);
+        assertThat(stats.getCumulativeCount(8)).isEqualTo(2);
+        assertThat(stats.getMax(TimeUnit.MICROSECONDS)).isEqualTo(250_001);
+        assertThat(metrics.stats("work").getOperationName()).isEqualTo(SpanMetrics.OTHER_OPERATION);
+    }
+
+    @Test
+    void maxDecaysAfterTwoMinutes() {
+        MockClock clock = new MockClock();
+        SpanMetrics metrics = new SpanMetrics(10, clock);
+
+        metrics.record("saveToDb", 250_001, false);
+        clock.add(Duration.ofSeconds(100));
+        metrics.record("saveToDb", 1_000, false);
+
+        SpanMetrics.OperationStats stats = metrics.stats("saveToDb");
+        assertThat(stats.getMax(TimeUnit.MICROSECONDS)).isEqualTo(250_001);
+        clock.add(Duration.ofSeconds(30));
+        assertThat(stats.getMax(TimeUnit.MICROSECONDS)).isEqualTo(1_000);
+        clock.add(Duration.ofMinutes(2));
+        assertThat(stats.getMax(TimeUnit.MICROSECONDS)).isZero();
+    }
+
+    @Test
+    void everyListenerSeesEveryOperation() {
+        SpanMetrics metrics = new SpanMetrics(10);
+        metrics.record("saveToDb", 1_000, false);
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+
+        metrics.forEachOperation((operation, stats) -> first.add(operation));
+        metrics.forEachOperation((operation, stats) -> second.add(operation));
+        metrics.record("work", 1_000, false);
+
+        assertThat(first).containsExactlyInAnyOrder(SpanMetrics.OTHER_OPERATION, "saveToDb", "work");
+        assertThat(second).containsExactlyInAnyOrder(SpanMetrics.OTHER_OPERATION, "saveToDb", "work");
+    }
+}
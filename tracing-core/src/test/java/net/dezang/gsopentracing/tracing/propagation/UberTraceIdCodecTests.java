@@ -0,0 +1,70 @@
+package net.dezang.gsopentracing.tracing.propagation;
+
+import io.jaegertracing.internal.JaegerSpanContext;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UberTraceIdCodecTests {
+
+    @Test
+    void decodesJavaClientHeader() {
+        JaegerSpanContext context = UberTraceIdCodec.decode("eff5a956cab8a747:7cf853758807f43f:eff5a956cab8a747:1");
+
+        assertThat(context.getTraceIdHigh()).isZero();
+        assertThat(context.getTraceIdLow()).isEqualTo(0xeff5a956cab8a747L);
+        assertThat(context.getSpanId()).isEqualTo(0x7cf853758807f43fL);
+        assertThat(context.getParentId()).isEqualTo(0xeff5a956cab8a747L);
+        assertThat(context.isSampled()).isTrue();
+    }
+
+    @Test
+    void decodesUnpaddedAndWideIds() {
+        JaegerSpanContext unpadded = UberTraceIdCodec.decode("1a:2:0:0".getBytes(StandardCharsets.US_ASCII));
+        assertThat(unpadded.getTraceIdLow()).isEqualTo(0x1aL);
+        assertThat(unpadded.getSpanId()).isEqualTo(2L);
+        assertThat(unpadded.isSampled()).isFalse();
+
+        JaegerSpanContext wide = UberTraceIdCodec.decode("0000000000000abc0000000000000def:1:0:1");
+        assertThat(wide.getTraceIdHigh()).isEqualTo(0xabcL);
+        assertThat(wide.getTraceIdLow()).isEqualTo(0xdefL);
+    }
+
+    @Test
+    void rejectsMalformedValues() {
+        assertThat(UberTraceIdCodec.decode("")).isNull();
+        assertThat(UberTraceIdCodec.decode("abc:def:0")).isNull();
+        assertThat(UberTraceIdCodec.decode("abc::0:1")).isNull();
+        assertThat(UberTraceIdCodec.decode("xyz:def:0:1")).isNull();
+        assertThat(UberTraceIdCodec.decode("0:def:0:1")).isNull();
+        assertThat(UberTraceIdCodec.decode("abc:def:0:1:2")).isNull();
+    }
+
+    @Test
+    void textAndBinaryRoundTrip() {
+        JaegerSpanContext context = new JaegerSpanContext(0L, 0xeff5a956cab8a747L, 0x7cf853758807f43fL, 0L, (byte) 1);
+
+        assertThat(UberTraceIdCodec.encodeToString(context)).isEqualTo("eff5a956cab8a747:7cf853758807f43f:0:1");
+        assertThat(UberTraceIdCodec.decode(UberTraceIdCodec.encode(context))).usingRecursiveComparison().isEqualTo(context);
+        assertThat(UberTraceIdCodec.decodeBinary(UberTraceIdCodec.encodeBinary(context))).usingRecursiveComparison().isEqualTo(context);
+    }
+
+    @Test
+    void kafkaHeadersCarryBaggage() {
+        JaegerSpanContext context = new JaegerSpanContext(0L, 1L, 2L, 0L, (byte) 1)
+                .withBaggage(Map.of("user", "alice"));
+        Headers headers = new RecordHeaders();
+        KafkaHeadersCodec codec = new KafkaHeadersCodec(false);
+
+        codec.inject(context, headers);
+        JaegerSpanContext extracted = codec.extract(headers);
+
+        assertThat(extracted.getTraceIdLow()).isEqualTo(1L);
+        assertThat(extracted.getBaggageItem("user")).isEqualTo("alice");
+    }
+}
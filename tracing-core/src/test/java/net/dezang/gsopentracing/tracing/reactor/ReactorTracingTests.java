@@ -0,0 +1,71 @@
+package net.dezang.gsopentracing.tracing.reactor;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReactorTracingTests {
+    private final InMemoryReporter reporter = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(reporter)
+            .build();
+    private final ReactorTracing tracing = new ReactorTracing(tracer);
+
+    @AfterEach
+    void close() {
+        tracer.close();
+    }
+
+    @Test
+    void nestedSpanIsChildOfTheContextSpanAcrossSchedulers() {
+        String result = tracing.traced("outer", UnaryOperator.identity(), outer -> tracing.currentSpan()
+                .doOnNext(current -> assertThat(current).isSameAs(outer))
+                .then(tracing.traced("inner", UnaryOperator.identity(), inner -> Mono.just("done"))
+                        .subscribeOn(Schedulers.parallel())))
+                .block();
+
+        assertThat(result).isEqualTo("done");
+        assertThat(reporter.getSpans()).hasSize(2);
+        JaegerSpan outer = span("outer");
+        assertThat(span("inner").context().getParentId()).isEqualTo(outer.context().getSpanId());
+        assertThat(outer.context().getParentId()).isZero();
+    }
+
+    @Test
+    void failedBodyTagsAndFinishesTheSpan() {
+        Mono<String> failing = tracing.traced("failing", builder -> builder.withTag("attempt", 1),
+                span -> Mono.error(new IllegalStateException("boom")));
+
+        assertThatThrownBy(failing::block).hasMessageContaining("boom");
+        JaegerSpan span = reporter.getSpans().get(0);
+        assertThat(span.getTags()).containsEntry(Tags.ERROR.getKey(), true).containsEntry("attempt", 1);
+        assertThat(span.getLogs()).hasSize(1);
+    }
+
+    @Test
+    void noCurrentSpanOutsideTraced() {
+        Span current = tracing.currentSpan().block();
+
+        assertThat(current).isNull();
+    }
+
+    private JaegerSpan span(String operationName) {
+        return reporter.getSpans().stream()
+                .filter(span -> span.getOperationName().equals(operationName))
+                .findFirst()
+                .orElseThrow();
+    }
+}
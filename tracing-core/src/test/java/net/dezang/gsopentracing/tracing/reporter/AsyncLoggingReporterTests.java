@@ -0,0 +1,64 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncLoggingReporterTests {
+    private final InMemoryReporter finished = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(finished)
+            .build();
+
+    @AfterEach
+    void close() {
+        tracer.close();
+    }
+
+    @Test
+    void rendersSpanAsOneJsonLine() {
+        Span root = tracer.buildSpan("consumed").withStartTimestamp(1_000_000).start();
+        Span child = tracer.buildSpan("saveToDb").asChildOf(root).withStartTimestamp(1_000_100).start();
+        child.setTag("db.statement", "merge \"record\"\n");
+        child.setTag("retries", 2);
+        Tags.ERROR.set(child, true);
+        child.finish(1_000_350);
+
+        JaegerSpan span = finished.getSpans().get(0);
+        StringBuilder line = new StringBuilder();
+        AsyncLoggingReporter.appendJson(line, span);
+
+        assertThat(line.toString())
+                .startsWith("{\"service\":\"test\",\"traceId\":\"" + span.context().toTraceId() + "\"")
+                .contains("\"parentId\":\"" + Long.toHexString(span.context().getParentId()) + "\"")
+                .contains("\"operation\":\"saveToDb\",\"start\":1000100,\"duration\":250,\"error\":true")
+                .contains("\"db.statement\":\"merge \\\"record\\\"\\n\"")
+                .contains("\"retries\":2")
+                .endsWith("},\"logs\":0}")
+                .doesNotContain("\n");
+    }
+
+    @Test
+    void countsSpansOverTheRate() {
+        AsyncLoggingReporter reporter = new AsyncLoggingReporter(64 * 1024, 1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                tracer.buildSpan("work").start().finish();
+            }
+            finished.getSpans().forEach(reporter::report);
+        } finally {
+            reporter.close();
+        }
+
+        assertThat(reporter.logged.sum()).isEqualTo(1);
+        assertThat(reporter.rateLimited.sum()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,101 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class DeferredReporterTests {
+
+    @Test
+    void spanFinishedDuringCreationIsReplayedIntoTheReporter() {
+        InMemoryReporter exported = new InMemoryReporter();
+        CountDownLatch creating = new CountDownLatch(1);
+        DeferredReporter reporter = new DeferredReporter(blockedUntil(creating, exported));
+        JaegerTracer tracer = tracer(reporter);
+
+        // returns while the reporter is still being created
+        tracer.buildSpan("consumed").start().finish();
+        assertThat(exported.getSpans()).isEmpty();
+
+        creating.countDown();
+        tracer.close();
+
+        assertThat(exported.getSpans()).extracting(JaegerSpan::getOperationName).containsExactly("consumed");
+    }
+
+    @Test
+    void dropsSpansBeyondThePendingQueue() {
+        InMemoryReporter exported = new InMemoryReporter();
+        CountDownLatch creating = new CountDownLatch(1);
+        DeferredReporter reporter = new DeferredReporter(blockedUntil(creating, exported), 2, Duration.ofSeconds(5));
+        JaegerTracer tracer = tracer(reporter);
+
+        for (int i = 0; i < 3; i++) {
+            tracer.buildSpan("consumed-" + i).start().finish();
+        }
+        creating.countDown();
+        tracer.close();
+
+        assertThat(reporter.dropped.sum()).isEqualTo(1);
+        assertThat(exported.getSpans()).extracting(JaegerSpan::getOperationName)
+                .containsExactly("consumed-0", "consumed-1");
+    }
+
+    @Test
+    void closeDoesNotWaitForAHangingCreation() {
+        Reporter late = mock(Reporter.class);
+        CountDownLatch creating = new CountDownLatch(1);
+        DeferredReporter reporter = new DeferredReporter(blockedUntil(creating, late), 10, Duration.ofMillis(50));
+        JaegerTracer tracer = tracer(reporter);
+        tracer.buildSpan("consumed").start().finish();
+
+        tracer.close();
+        assertThat(reporter.dropped.sum()).isEqualTo(1);
+
+        creating.countDown();
+        verify(late, timeout(5000)).close();
+    }
+
+    @Test
+    void dropsSpansWhenTheReporterCannotBeCreated() {
+        DeferredReporter reporter = new DeferredReporter(() -> {
+            throw new IllegalStateException("agent host not found");
+        });
+        JaegerTracer tracer = tracer(reporter);
+
+        assertThatCode(() -> tracer.buildSpan("consumed").start().finish()).doesNotThrowAnyException();
+        assertThatCode(tracer::close).doesNotThrowAnyException();
+        assertThat(reporter.dropped.sum()).isEqualTo(1);
+    }
+
+    private static Supplier<Reporter> blockedUntil(CountDownLatch latch, Reporter reporter) {
+        return () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return reporter;
+        };
+    }
+
+    private static JaegerTracer tracer(Reporter reporter) {
+        return new JaegerTracer.Builder("test")
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+    }
+}
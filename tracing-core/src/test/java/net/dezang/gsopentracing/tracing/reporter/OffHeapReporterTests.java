@@ -0,0 +1,114 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.agent.thrift.Agent;
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.thriftjava.Span;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapReporterTests {
+    private final InMemoryReporter finished = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(finished)
+            .build();
+    private DatagramChannel agent;
+
+    @AfterEach
+    void close() throws IOException {
+        tracer.close();
+        if (agent != null) {
+            agent.close();
+        }
+    }
+
+    @Test
+    void sendsSpansInOneEmitBatch() throws Exception {
+        List<Agent.emitBatch_args> batches = report(5, 65000);
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0).getBatch().getProcess().getServiceName()).isEqualTo("test");
+        assertThat(batches.get(0).getBatch().getSpans()).extracting(Span::getOperationName)
+                .containsExactly("work-0", "work-1", "work-2", "work-3", "work-4");
+    }
+
+    @Test
+    void startsTheNextDatagramWhenASpanDoesNotFit() throws Exception {
+        List<Agent.emitBatch_args> batches = report(20, 1024);
+
+        assertThat(batches).hasSizeGreaterThan(1);
+        assertThat(batches.stream().flatMap(batch -> batch.getBatch().getSpans().stream())
+                .map(Span::getOperationName)
+                .collect(Collectors.toList()))
+                .hasSize(20)
+                .startsWith("work-0")
+                .endsWith("work-19");
+    }
+
+    @Test
+    void dropsSpanLargerThanADatagramWhenItFinishes() throws IOException {
+        OffHeapReporter reporter = reporter(1024);
+        io.opentracing.Span span = tracer.buildSpan("work").start();
+        span.setTag("payload", "x".repeat(2048));
+        span.finish();
+
+        reporter.report(finished.getSpans().get(0));
+        reporter.close();
+
+        assertThat(reporter.tooLarge.sum()).isEqualTo(1);
+        assertThat(reporter.sent.sum()).isZero();
+    }
+
+    private OffHeapReporter reporter(int maxPacketSize) throws IOException {
+        agent = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return new OffHeapReporter(InetAddress.getLoopbackAddress().getHostAddress(),
+                ((InetSocketAddress) agent.getLocalAddress()).getPort(), maxPacketSize, 64 * 1024,
+                Duration.ofSeconds(10));
+    }
+
+    private List<Agent.emitBatch_args> report(int spans, int maxPacketSize) throws IOException, TException {
+        OffHeapReporter reporter = reporter(maxPacketSize);
+        for (int i = 0; i < spans; i++) {
+            tracer.buildSpan("work-" + i).start().finish();
+        }
+        for (JaegerSpan span : finished.getSpans()) {
+            reporter.report(span);
+        }
+        // flushes the last datagram
+        reporter.close();
+
+        List<Agent.emitBatch_args> batches = new ArrayList<>();
+        agent.configureBlocking(false);
+        ByteBuffer datagram = ByteBuffer.allocate(maxPacketSize);
+        while (agent.receive(datagram.clear()) != null) {
+            datagram.flip();
+            byte[] bytes = new byte[datagram.remaining()];
+            datagram.get(bytes);
+            TCompactProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(bytes));
+            protocol.readMessageBegin();
+            Agent.emitBatch_args batch = new Agent.emitBatch_args();
+            batch.read(protocol);
+            batches.add(batch);
+        }
+        assertThat(reporter.sent.sum()).isEqualTo(spans);
+        return batches;
+    }
+}
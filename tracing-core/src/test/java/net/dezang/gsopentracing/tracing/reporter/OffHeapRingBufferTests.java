@@ -0,0 +1,95 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapRingBufferTests {
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS_PER_PRODUCER = 50_000;
+
+    @Test
+    void deliversEveryRecordOnceAndWhole() throws Exception {
+        // small enough to wrap and fill up often
+        OffHeapRingBuffer ring = new OffHeapRingBuffer(4096);
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> offered = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            offered.add(producers.submit(() -> {
+                start.await();
+                int accepted = 0;
+                for (int sequence = 0; sequence < RECORDS_PER_PRODUCER; sequence++) {
+                    if (ring.offer(record(producer, sequence))) {
+                        accepted++;
+                    }
+                }
+                return accepted;
+            }));
+        }
+
+        int[] lastSequence = new int[PRODUCERS];
+        Arrays.fill(lastSequence, -1);
+        int[] received = new int[PRODUCERS];
+        OffHeapRingBuffer.RecordSink check = record -> {
+            int producer = record.getInt(record.position());
+            int sequence = record.getInt(record.position() + Integer.BYTES);
+            assertThat(record.remaining()).isEqualTo(length(sequence));
+            for (int i = 2 * Integer.BYTES; i < record.remaining(); i++) {
+                assertThat(record.get(record.position() + i)).isEqualTo((byte) (sequence + i));
+            }
+            // records of one producer arrive in the order it offered them
+            assertThat(sequence).isGreaterThan(lastSequence[producer]);
+            lastSequence[producer] = sequence;
+            received[producer]++;
+            return true;
+        };
+        start.countDown();
+        producers.shutdown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            boolean done = producers.isTerminated();
+            if (!ring.poll(check)) {
+                if (done) {
+                    break;
+                }
+                Thread.onSpinWait();
+            }
+        }
+        assertThat(producers.isTerminated()).isTrue();
+
+        int accepted = 0;
+        for (int p = 0; p < PRODUCERS; p++) {
+            accepted += offered.get(p).get();
+        }
+        assertThat(accepted + ring.dropped.sum()).isEqualTo((long) PRODUCERS * RECORDS_PER_PRODUCER);
+        assertThat(IntStream.of(received).sum()).isEqualTo(accepted);
+    }
+
+    private static ByteBuffer record(int producer, int sequence) {
+        int length = length(sequence);
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(producer).putInt(sequence);
+        for (int i = 2 * Integer.BYTES; i < length; i++) {
+            record.put((byte) (sequence + i));
+        }
+        return record.flip();
+    }
+
+    // odd lengths, so that records are padded and the tail copy runs
+    private static int length(int sequence) {
+        return 2 * Integer.BYTES + sequence % 97;
+    }
+}
@@ -0,0 +1,107 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import net.dezang.gsopentracing.tracing.ObservedObjectFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TailSamplingReporterTests {
+    private final InMemoryReporter exported = new InMemoryReporter();
+    private final TailSamplingReporter reporter = new TailSamplingReporter(exported, 0, Duration.ofSeconds(1),
+            Map.of("saveToDb", Duration.ofMillis(200)), 100, 100, Duration.ofSeconds(30));
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test", new ObservedObjectFactory(List.of(reporter))) {
+    }
+            .withSampler(new ConstSampler(true))
+            .withReporter(reporter)
+            .build();
+
+    @AfterEach
+    void close() {
+        tracer.close();
+    }
+
+    @Test
+    void keepsFailedTraceOnceLocalRootFinishes() {
+        Span root = tracer.buildSpan("consumed").start();
+        Span child = tracer.buildSpan("saveToDb").asChildOf(root).start();
+        Tags.ERROR.set(child, true);
+        child.finish();
+
+        assertThat(exported.getSpans()).isEmpty();
+        assertThat(reporter.getBufferedSpans()).isEqualTo(1);
+
+        root.finish();
+
+        assertThat(exported.getSpans()).extracting(JaegerSpan::getOperationName)
+                .containsExactly("saveToDb", "consumed");
+        assertThat(reporter.getBufferedTraces()).isZero();
+    }
+
+    @Test
+    void keepsSlowOperationAndDropsTheRest() {
+        long start = 1_000_000;
+        tracer.buildSpan("saveToDb").withStartTimestamp(start).start().finish(start + 250_000);
+        tracer.buildSpan("work").withStartTimestamp(start).start().finish(start + 250_000);
+
+        assertThat(exported.getSpans()).extracting(JaegerSpan::getOperationName).containsExactly("saveToDb");
+        assertThat(reporter.tracesDropped.sum()).isEqualTo(1);
+        assertThat(reporter.getBufferedSpans()).isZero();
+    }
+
+    @Test
+    void reopenedTraceFollowsItsFirstDecision() {
+        TailSamplingReporter halfKept = new TailSamplingReporter(exported, 0.5, Duration.ofSeconds(1), Map.of(),
+                1000, 1000, Duration.ofSeconds(30));
+        JaegerTracer halfKeptTracer = tracer(halfKept);
+        for (int i = 0; i < 200; i++) {
+            Span root = halfKeptTracer.buildSpan("consumed-" + i).start();
+            root.finish();
+            // a later local root of the same trace, e.g. a retry
+            halfKeptTracer.buildSpan("retried-" + i).asChildOf(root).start().finish();
+        }
+        halfKeptTracer.close();
+
+        Set<String> names = exported.getSpans().stream().map(JaegerSpan::getOperationName).collect(Collectors.toSet());
+        for (int i = 0; i < 200; i++) {
+            assertThat(names.contains("retried-" + i)).as("trace %d", i).isEqualTo(names.contains("consumed-" + i));
+        }
+        assertThat(halfKept.tracesKept.sum()).isPositive();
+        assertThat(halfKept.tracesDropped.sum()).isPositive();
+    }
+
+    @Test
+    void tellsTracesApartByTheirHighTraceId() {
+        JaegerSpanContext failing = new JaegerSpanContext(1, 7, 1, 0, (byte) 1);
+        JaegerSpanContext unremarkable = new JaegerSpanContext(2, 7, 2, 0, (byte) 1);
+
+        Span kept = tracer.buildSpan("kept").asChildOf(failing).start();
+        tracer.buildSpan("dropped").asChildOf(unremarkable).start().finish();
+        Tags.ERROR.set(kept, true);
+        kept.finish();
+
+        assertThat(exported.getSpans()).extracting(JaegerSpan::getOperationName).containsExactly("kept");
+        assertThat(reporter.tracesDropped.sum()).isEqualTo(1);
+    }
+
+    private static JaegerTracer tracer(TailSamplingReporter reporter) {
+        return new JaegerTracer.Builder("test", new ObservedObjectFactory(List.of(reporter))) {
+        }
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+    }
+}
@@ -0,0 +1,121 @@
+package net.dezang.gsopentracing.tracing.reporter;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.thrift.internal.reporters.protocols.JaegerThriftSpanConverter;
+import io.opentracing.References;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ThriftSpanWriterTests {
+    private final InMemoryReporter finished = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(finished)
+            .withTraceId128Bit()
+            .build();
+    private final ThriftSpanWriter writer = new ThriftSpanWriter();
+
+    @AfterEach
+    void close() {
+        tracer.close();
+    }
+
+    @Test
+    void decodesLikeTheStockConverter() throws TException {
+        Span root = tracer.buildSpan("consumed").start();
+        Span previous = tracer.buildSpan("produced").start();
+        Span span = tracer.buildSpan("saveToDb")
+                .asChildOf(root)
+                .addReference(References.FOLLOWS_FROM, previous.context())
+                .start();
+        span.setTag("db.statement", "merge");
+        span.setTag("retries", 2);
+        span.setTag("attempts", 3L);
+        span.setTag("ratio", 0.5);
+        Tags.ERROR.set(span, true);
+        span.log(Map.of("event", "retry", "delay", 100));
+        span.log("committed");
+        span.finish();
+
+        assertRoundTrip(lastFinished());
+    }
+
+    @Test
+    void decodesChildWithoutTagsLikeTheStockConverter() throws TException {
+        Span root = tracer.buildSpan("consumed").start();
+        tracer.buildSpan("work").asChildOf(root).start().finish();
+
+        assertRoundTrip(lastFinished());
+    }
+
+    @Test
+    void rejectsSpanLargerThanTheBuffer() {
+        Span span = tracer.buildSpan("consumed").start();
+        span.setTag("payload", "x".repeat(256));
+        span.finish();
+
+        assertThatThrownBy(() -> writer.write(lastFinished(), ByteBuffer.allocate(128)))
+                .isInstanceOf(TException.class);
+    }
+
+    @Test
+    void transportReadsWhatItWrote() throws TException {
+        tracer.buildSpan("consumed").start().finish();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        writer.write(lastFinished(), buffer);
+        buffer.flip();
+
+        ThriftSpanWriter.ByteBufferTransport transport = new ThriftSpanWriter.ByteBufferTransport();
+        transport.target = buffer;
+        io.jaegertracing.thriftjava.Span decoded = new io.jaegertracing.thriftjava.Span();
+        decoded.read(new TCompactProtocol(transport));
+
+        assertThat(decoded.getOperationName()).isEqualTo("consumed");
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    private JaegerSpan lastFinished() {
+        List<JaegerSpan> spans = finished.getSpans();
+        return spans.get(spans.size() - 1);
+    }
+
+    private void assertRoundTrip(JaegerSpan span) throws TException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        writer.write(span, buffer);
+        byte[] bytes = new byte[buffer.flip().remaining()];
+        buffer.get(bytes);
+        io.jaegertracing.thriftjava.Span decoded = new io.jaegertracing.thriftjava.Span();
+        new TDeserializer(new TCompactProtocol.Factory()).deserialize(decoded, bytes);
+
+        assertThat(withEmptyLists(decoded)).isEqualTo(withEmptyLists(JaegerThriftSpanConverter.convertSpan(span)));
+    }
+
+    // the writer leaves out empty lists, the converter sets them
+    private static io.jaegertracing.thriftjava.Span withEmptyLists(io.jaegertracing.thriftjava.Span span) {
+        if (!span.isSetReferences()) {
+            span.setReferences(List.of());
+        }
+        if (!span.isSetTags()) {
+            span.setTags(List.of());
+        }
+        if (!span.isSetLogs()) {
+            span.setLogs(List.of());
+        }
+        return span;
+    }
+}
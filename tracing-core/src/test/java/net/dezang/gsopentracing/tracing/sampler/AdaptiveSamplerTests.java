@@ -0,0 +1,68 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.SamplingStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveSamplerTests {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void lowersProbabilityToHoldTheTargetUnderLoad() {
+        long start = System.nanoTime();
+        AdaptiveSampler sampler = new AdaptiveSampler(10, Duration.ofSeconds(1), start);
+
+        for (int i = 0; i < 1000; i++) {
+            sampler.sample("consumed", randomId(), start + i * 1_000_000L);
+        }
+        SamplingStatus status = sampler.sample("consumed", randomId(), start + SECOND);
+
+        assertThat(sampler.getSamplingRate()).isCloseTo(10 / 1001d, within(0.0001));
+        assertThat(status.getTags())
+                .containsEntry(Samplers.SAMPLER_TYPE_TAG, AdaptiveSampler.TYPE)
+                .containsEntry(Samplers.SAMPLER_PARAM_TAG, sampler.getSamplingRate());
+    }
+
+    @Test
+    void returnsToSamplingEverythingOnceTheLoadDrops() {
+        long start = System.nanoTime();
+        AdaptiveSampler sampler = new AdaptiveSampler(10, Duration.ofSeconds(1), start);
+        for (int i = 0; i < 1000; i++) {
+            sampler.sample("consumed", randomId(), start + i * 1_000_000L);
+        }
+        sampler.sample("consumed", randomId(), start + SECOND);
+        assertThat(sampler.getSamplingRate()).isLessThan(0.1);
+
+        // one root span per second, the smoothed rate halves on every adjustment
+        for (int second = 2; second <= 10; second++) {
+            sampler.sample("consumed", randomId(), start + second * SECOND);
+        }
+
+        assertThat(sampler.getSamplingRate()).isEqualTo(1);
+    }
+
+    @Test
+    void capsBurstsBeforeTheNextAdjustment() {
+        long start = System.nanoTime();
+        AdaptiveSampler sampler = new AdaptiveSampler(10, Duration.ofSeconds(1), start);
+
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample("consumed", randomId(), start).isSampled()) {
+                sampled++;
+            }
+        }
+
+        assertThat(sampler.getSamplingRate()).isEqualTo(1);
+        assertThat(sampled).isBetween(9, 11);
+    }
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+}
@@ -0,0 +1,32 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import io.jaegertracing.internal.samplers.ProbabilisticSampler;
+import io.jaegertracing.internal.samplers.SamplingStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PerOperationProbabilisticSamplerTests {
+    private final PerOperationProbabilisticSampler sampler =
+            new PerOperationProbabilisticSampler(Map.of("work-in-rest-producer", 1d), 0);
+
+    @Test
+    void listedOperationUsesItsOwnProbability() {
+        SamplingStatus status = sampler.sample("work-in-rest-producer", 42);
+
+        assertThat(status.isSampled()).isTrue();
+        assertThat(status.getTags())
+                .containsEntry(Samplers.SAMPLER_TYPE_TAG, ProbabilisticSampler.TYPE)
+                .containsEntry(Samplers.SAMPLER_PARAM_TAG, 1d);
+    }
+
+    @Test
+    void unlistedOperationFallsBackToTheDefaultProbability() {
+        SamplingStatus status = sampler.sample("consumed", 42);
+
+        assertThat(status.isSampled()).isFalse();
+        assertThat(status.getTags()).containsEntry(Samplers.SAMPLER_PARAM_TAG, 0d);
+    }
+}
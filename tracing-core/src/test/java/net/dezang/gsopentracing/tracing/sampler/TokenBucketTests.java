@@ -0,0 +1,22 @@
+package net.dezang.gsopentracing.tracing.sampler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTests {
+
+    @Test
+    void grantsBurstThenRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+
+        assertThat(bucket.tryAcquire(now)).isTrue();
+        assertThat(bucket.tryAcquire(now)).isTrue();
+        assertThat(bucket.tryAcquire(now)).isTrue();
+        assertThat(bucket.tryAcquire(now)).isFalse();
+
+        assertThat(bucket.tryAcquire(now + 100_000_000L)).isTrue();
+        assertThat(bucket.tryAcquire(now + 100_000_000L)).isFalse();
+    }
+}
@@ -0,0 +1,84 @@
+package net.dezang.gsopentracing.tracing.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpanSpoolTests {
+
+    @Test
+    void resumesFromCommittedPositionAfterReopen(@TempDir Path directory) {
+        SpanSpool spool = new SpanSpool(directory, 64, 4, Runnable::run);
+        spool.append(bytes("first"));
+        spool.append(bytes("second"));
+        spool.commit(spool.read(5));
+        spool.append(bytes("third"));
+        spool.close();
+
+        SpanSpool reopened = new SpanSpool(directory, 64, 4, Runnable::run);
+
+        assertThat(reopened.read(1024).getRecords()).extracting(SpanSpoolTests::string)
+                .containsExactly("second", "third");
+    }
+
+    @Test
+    void dropsOldestSegmentWhenFull(@TempDir Path directory) throws Exception {
+        SpanSpool spool = new SpanSpool(directory, 16, 3, Runnable::run);
+        for (int i = 0; i < 5; i++) {
+            spool.append(bytes("record" + i));
+        }
+
+        // two with records and the spare
+        assertThat(SpanSpool.segmentFiles(directory)).hasSize(3);
+        assertThat(spool.droppedSegments.sum()).isEqualTo(3);
+        assertThat(spool.read(1024).getRecords()).extracting(SpanSpoolTests::string)
+                .containsExactly("record3", "record4");
+    }
+
+    @Test
+    void appendLeavesSegmentFilesToTheAllocator(@TempDir Path directory) throws Exception {
+        List<Runnable> allocations = new ArrayList<>();
+        SpanSpool spool = new SpanSpool(directory, 16, 4, allocations::add);
+
+        assertThat(spool.append(bytes("record0"))).isTrue();
+        assertThat(spool.append(bytes("record1"))).isTrue();
+        // the spare is taken, its successor is not mapped until the allocator runs
+        assertThat(spool.append(bytes("record2"))).isFalse();
+        assertThat(spool.segmentNotReady.sum()).isEqualTo(1);
+        assertThat(SpanSpool.segmentFiles(directory)).hasSize(2);
+
+        allocations.forEach(Runnable::run);
+
+        assertThat(spool.append(bytes("record2"))).isTrue();
+        assertThat(spool.read(1024).getRecords()).extracting(SpanSpoolTests::string)
+                .containsExactly("record0", "record1", "record2");
+    }
+
+    @Test
+    void dumpMapsSegmentsReadOnly(@TempDir Path directory) throws Exception {
+        SpanSpool spool = new SpanSpool(directory, 64, 4, Runnable::run);
+        spool.append(bytes("first"));
+        spool.append(bytes("second"));
+        List<String> records = new ArrayList<>();
+
+        for (Path path : SpanSpool.segmentFiles(directory)) {
+            SpanSpool.Segment.openReadOnly(path).forEach(record -> records.add(string(record)));
+        }
+
+        assertThat(records).containsExactly("first", "second");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
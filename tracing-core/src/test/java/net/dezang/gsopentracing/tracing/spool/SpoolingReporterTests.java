@@ -0,0 +1,85 @@
+package net.dezang.gsopentracing.tracing.spool;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.thrift.internal.senders.ThriftSender;
+import io.jaegertracing.thriftjava.Process;
+import io.jaegertracing.thriftjava.Span;
+import io.opentracing.Tracer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SpoolingReporterTests {
+    // leaves 512 bytes for the spans of a batch
+    private static final int MAX_PACKET_SIZE = 1536;
+
+    private final InMemoryReporter finished = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(finished)
+            .build();
+    private final ThriftSender sender = mock(ThriftSender.class);
+
+    @AfterEach
+    void close() {
+        tracer.close();
+    }
+
+    @Test
+    void dropsSpanLargerThanABatchInsteadOfSpoolingIt(@TempDir Path directory) throws Exception {
+        SpanSpool spool = new SpanSpool(directory, 4096, 4, Runnable::run);
+        SpoolingReporter reporter = new SpoolingReporter(spool, sender, "test", MAX_PACKET_SIZE,
+                Duration.ofHours(1));
+
+        reporter.report(finish(tracer.buildSpan("large").withTag("payload", "x".repeat(1024))));
+        reporter.report(finish(tracer.buildSpan("small")));
+        reporter.close();
+
+        assertThat(reporter.tooLarge.sum()).isEqualTo(1);
+        assertThat(spool.appended.sum()).isEqualTo(1);
+        assertThat(sentOperations()).containsExactly("small");
+    }
+
+    @Test
+    void skipsSpooledRecordLargerThanABatch(@TempDir Path directory) throws Exception {
+        SpanSpool spool = new SpanSpool(directory, 4096, 4, Runnable::run);
+        // spooled by an earlier run with a larger maxPacketSize
+        spool.append(new byte[1024]);
+        SpoolingReporter reporter = new SpoolingReporter(spool, sender, "test", MAX_PACKET_SIZE,
+                Duration.ofHours(1));
+
+        reporter.report(finish(tracer.buildSpan("small")));
+        reporter.close();
+
+        assertThat(reporter.tooLarge.sum()).isEqualTo(1);
+        assertThat(reporter.sendFailures.sum()).isZero();
+        assertThat(sentOperations()).containsExactly("small");
+    }
+
+    private JaegerSpan finish(Tracer.SpanBuilder builder) {
+        builder.start().finish();
+        List<JaegerSpan> spans = finished.getSpans();
+        return spans.get(spans.size() - 1);
+    }
+
+    private List<String> sentOperations() throws Exception {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Span>> spans = ArgumentCaptor.forClass(List.class);
+        verify(sender).send(any(Process.class), spans.capture());
+        return spans.getValue().stream().map(Span::getOperationName).collect(Collectors.toList());
+    }
+}